@@ -0,0 +1,56 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AccountUtilities.getCommission and chargeCommission, which run on every trade.  Lives in the service's package
+ * because both methods are package-private; neither touches the injected fields, so a plain instance will do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CommissionBenchmark {
+    @Param({ "Basic", "Bronze", "Silver", "Gold", "Platinum" })
+    String loyalty;
+
+    private AccountUtilities utilities;
+    private Account account;
+
+    @Setup
+    public void setup() {
+        utilities = new AccountUtilities();
+        account = new Account("John", loyalty, 50.0, 0.0, 0, "Unknown", 9.99);
+    }
+
+    @Benchmark
+    public double getCommission() {
+        return utilities.getCommission(loyalty);
+    }
+
+    @Benchmark
+    public Account chargeCommission() {
+        utilities.chargeCommission(account);
+        return account;
+    }
+}
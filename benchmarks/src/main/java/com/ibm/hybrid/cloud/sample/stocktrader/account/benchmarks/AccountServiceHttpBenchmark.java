@@ -0,0 +1,100 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full request handling by AccountService - JWT checks, JSON-B, the cache, CouchDB and (depending on how the instance
+ * is configured) ODM - measured over HTTP against a running instance, since the service can't be stood up inside a
+ * JMH fork.  Only run when -Dbenchmark.url is set (for example http://localhost:9080), and needs a JWT with the
+ * StockTrader group in -Dbenchmark.jwt.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountServiceHttpBenchmark {
+    private static final Logger logger = Logger.getLogger(AccountServiceHttpBenchmark.class.getName());
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+    static final String URL_PROPERTY = "benchmark.url";
+    static final String JWT_PROPERTY = "benchmark.jwt";
+
+    private HttpClient client;
+    private String baseUrl;
+    private String authorization;
+    private String id;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        baseUrl = System.getProperty(URL_PROPERTY);
+        if (baseUrl == null || baseUrl.isBlank()) throw new IllegalStateException("Set -D" + URL_PROPERTY + " to the account service's URL");
+        authorization = "Bearer " + System.getProperty(JWT_PROPERTY, "");
+        client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+        String owner = "jmh" + System.currentTimeMillis();
+        HttpResponse<String> response = send(request("/account/" + owner).POST(HttpRequest.BodyPublishers.noBody()));
+        Matcher matcher = ID.matcher(response.body());
+        if (response.statusCode() != 200 || !matcher.find()) throw new IllegalStateException("Couldn't create account: " + response.statusCode() + " " + response.body());
+        id = matcher.group(1);
+        logger.info("Benchmarking against account " + id + " at " + baseUrl);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        if (id != null) send(request("/account/" + id).DELETE());
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Authorization", authorization)
+                .header("Accept", "application/json")
+                .timeout(Duration.ofSeconds(30));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String expectOk(HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(request);
+        if (response.statusCode() != 200) throw new IllegalStateException("HTTP " + response.statusCode() + ": " + response.body());
+        return response.body();
+    }
+
+    @Benchmark
+    public String getAccount() throws IOException, InterruptedException {
+        return expectOk(request("/account/" + id + "?total=12345.67").GET());
+    }
+
+    @Benchmark
+    public String updateAccount() throws IOException, InterruptedException {
+        return expectOk(request("/account/" + id + "?total=12345.67").PUT(HttpRequest.BodyPublishers.noBody()));
+    }
+}
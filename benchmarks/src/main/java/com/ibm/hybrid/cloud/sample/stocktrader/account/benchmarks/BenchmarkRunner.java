@@ -0,0 +1,46 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar.  Takes the usual JMH command line options (a benchmark regex, -f, -wi, -i, -prof and
+ * so on), but unless told otherwise writes the results as JSON to target/jmh-results.json, so that runs from before
+ * and after a change can be compared side by side (for example with https://jmh.morethan.io).  The HTTP benchmark
+ * is left out unless -Dbenchmark.url points it at a running instance.
+ */
+public class BenchmarkRunner {
+    private static final String DEFAULT_RESULTS = "target/jmh-results.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        OptionsBuilder builder = new OptionsBuilder();
+        if (!commandLine.getResult().hasValue()) builder.result(DEFAULT_RESULTS);
+        if (!commandLine.getResultFormat().hasValue()) builder.resultFormat(ResultFormatType.JSON);
+        if (System.getProperty(AccountServiceHttpBenchmark.URL_PROPERTY) == null) builder.exclude(AccountServiceHttpBenchmark.class.getSimpleName());
+        Options options = builder.parent(commandLine).build();
+
+        new Runner(options).run();
+    }
+}
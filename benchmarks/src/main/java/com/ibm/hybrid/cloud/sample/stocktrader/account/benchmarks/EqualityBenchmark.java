@@ -0,0 +1,101 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.benchmarks;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyChange;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Field-based equals and hashCode of the json POJOs against the toString comparison they used to make.  Run with
+ * -prof gc to see the allocation difference: the toString comparison builds two JSON strings per call, the field
+ * comparison allocates nothing.  The account pair is what an update compares (the account as read against its
+ * recalculated copy), once where nothing changed and once where only the last field, the operation, did.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EqualityBenchmark {
+    private Account account;
+    private Account sameAccount;
+    private Account updatedAccount;
+    private LoyaltyChange change;
+    private LoyaltyChange sameChange;
+
+    @Setup
+    public void setup() {
+        account = new Account("5f3b5a4c2a8d4e0f9b1c7d6e5f4a3b2c", "John", "Gold", 48.02, 51.98, 0, "Unknown", 6.99);
+        account.setOperation("update");
+        sameAccount = new Account(account);
+        updatedAccount = new Account(account);
+        updatedAccount.setOperation("settlement");
+        change = new LoyaltyChange("John", "Silver", "Gold");
+        change.setEventId("0b9c3f8e-8a51-4c0f-9a57-1f1e2d3c4b5a");
+        sameChange = new LoyaltyChange("John", "Silver", "Gold");
+        sameChange.setEventId(change.getEventId());
+    }
+
+    @Benchmark
+    public boolean accountEquals() {
+        return account.equals(sameAccount);
+    }
+
+    @Benchmark
+    public boolean accountEqualsByToString() {
+        return account.toString().equals(sameAccount.toString());
+    }
+
+    @Benchmark
+    public boolean accountNotEquals() {
+        return account.equals(updatedAccount);
+    }
+
+    @Benchmark
+    public boolean accountNotEqualsByToString() {
+        return account.toString().equals(updatedAccount.toString());
+    }
+
+    @Benchmark
+    public int accountHashCode() {
+        return account.hashCode();
+    }
+
+    @Benchmark
+    public boolean loyaltyChangeEquals() {
+        return change.equals(sameChange);
+    }
+
+    @Benchmark
+    public boolean loyaltyChangeEqualsByToString() {
+        return change.toString().equals(sameChange.toString());
+    }
+
+    /** Dropping a redelivered event, which only works now that equal events have equal hash codes */
+    @Benchmark
+    public int loyaltyChangeDedupe() {
+        Set<LoyaltyChange> seen = new HashSet<>(4);
+        seen.add(change);
+        seen.add(sameChange);
+        return seen.size();
+    }
+}
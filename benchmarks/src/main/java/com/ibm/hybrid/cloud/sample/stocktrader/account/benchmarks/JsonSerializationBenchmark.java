@@ -0,0 +1,140 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.benchmarks;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.JsonCodecs;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyChange;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning the Account and LoyaltyChange POJOs into JSON and back: reflective JSON-B, the JSON-P streaming
+ * JsonCodecs (what the REST layer and the JMS publisher use), and the hand-built toString JSON (what the logging uses).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonSerializationBenchmark {
+    private Jsonb jsonb;
+    private Account account;
+    private String accountJson;
+    private LoyaltyChange loyaltyChange;
+    private String loyaltyChangeJson;
+    private byte[] accountBytes;
+    private byte[] loyaltyChangeBytes;
+    private ByteArrayOutputStream buffer;
+
+    @Setup
+    public void setup() {
+        jsonb = JsonbBuilder.create();
+        account = new Account("5f3b5a4c2a8d4e0f9b1c7d6e5f4a3b2c", "John", "Gold", 48.02, 51.98, 0, "Unknown", 6.99);
+        account.setOperation("update");
+        accountJson = jsonb.toJson(account);
+        loyaltyChange = new LoyaltyChange("John", "Silver", "Gold");
+        loyaltyChangeJson = jsonb.toJson(loyaltyChange);
+        accountBytes = accountJson.getBytes(StandardCharsets.UTF_8);
+        loyaltyChangeBytes = loyaltyChangeJson.getBytes(StandardCharsets.UTF_8);
+        buffer = new ByteArrayOutputStream(512);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        jsonb.close();
+    }
+
+    @Benchmark
+    public String accountToJsonb() {
+        return jsonb.toJson(account);
+    }
+
+    @Benchmark
+    public Account accountFromJsonb() {
+        return jsonb.fromJson(accountJson, Account.class);
+    }
+
+    /** Writes to a stream, as the REST layer does, rather than building a String */
+    @Benchmark
+    public int accountToJsonbStream() {
+        buffer.reset();
+        jsonb.toJson(account, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int accountToStreamingJson() {
+        buffer.reset();
+        try (JsonGenerator generator = JsonCodecs.createGenerator(buffer)) {
+            JsonCodecs.write(generator, account);
+        }
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Account accountFromJsonbStream() {
+        return jsonb.fromJson(new ByteArrayInputStream(accountBytes), Account.class);
+    }
+
+    @Benchmark
+    public Account accountFromStreamingJson() {
+        try (JsonParser parser = JsonCodecs.createParser(new ByteArrayInputStream(accountBytes))) {
+            return JsonCodecs.readAccount(parser, parser.next());
+        }
+    }
+
+    @Benchmark
+    public String accountToString() {
+        return account.toString();
+    }
+
+    @Benchmark
+    public String loyaltyChangeToJsonb() {
+        return jsonb.toJson(loyaltyChange);
+    }
+
+    @Benchmark
+    public LoyaltyChange loyaltyChangeFromJsonb() {
+        return jsonb.fromJson(loyaltyChangeJson, LoyaltyChange.class);
+    }
+
+    @Benchmark
+    public String loyaltyChangeToStreamingJson() {
+        return JsonCodecs.toJson(loyaltyChange);
+    }
+
+    @Benchmark
+    public LoyaltyChange loyaltyChangeFromStreamingJson() {
+        try (JsonParser parser = JsonCodecs.createParser(new ByteArrayInputStream(loyaltyChangeBytes))) {
+            return JsonCodecs.readLoyaltyChange(parser, parser.next());
+        }
+    }
+
+    @Benchmark
+    public String loyaltyChangeToString() {
+        return loyaltyChange.toString();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.benchmarks;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonDocument;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonOutput;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonTone;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WatsonOutput.determineSentiment, which picks the highest scoring tone out of the Tone Analyzer response
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SentimentBenchmark {
+    private static final String[] TONES = { "Joy", "Sadness", "Anger", "Fear", "Analytical", "Confident", "Tentative" };
+
+    @Param({ "1", "3", "7" })
+    int tones;
+
+    private WatsonOutput output;
+
+    @Setup
+    public void setup() {
+        WatsonTone[] toneArray = new WatsonTone[tones];
+        for (int index = 0; index < tones; index++) {
+            String name = TONES[index];
+            toneArray[index] = new WatsonTone(0.5 + (index * 0.37 % 0.5), name.toLowerCase(), name);
+        }
+        output = new WatsonOutput(new WatsonDocument(toneArray));
+    }
+
+    @Benchmark
+    public String determineSentiment() {
+        return output.determineSentiment();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read-through path AccountService takes for every read: AccountCache first, then the repository.  The
+ * repository is an in-memory stand-in (a map of ids to accounts, copied on the way out like a real read would be),
+ * so what is measured is the cache's own overhead - the lock, the LRU bookkeeping, the copies and the counters.
+ * The ratio of the cache size to the number of accounts read sets the hit rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountCacheBenchmark {
+    @Param({ "10000" })
+    int accounts;
+
+    @Param({ "1000", "10000" })
+    int cacheSize;
+
+    private final Map<String, Account> store = new ConcurrentHashMap<>();
+    private String[] ids;
+    private AccountCache cache;
+    private AccountCache disabled;
+
+    @Setup
+    public void setup() {
+        ids = new String[accounts];
+        for (int index = 0; index < accounts; index++) {
+            String id = UUID.randomUUID().toString();
+            Account account = new Account(id, "owner" + index, "Basic", 50.0, 0.0, 0, "Unknown", 9.99);
+            account.setRev("1-" + Integer.toHexString(index));
+            store.put(id, account);
+            ids[index] = id;
+        }
+
+        cache = newCache(true);
+        disabled = newCache(false);
+    }
+
+    private AccountCache newCache(boolean enabled) {
+        AccountCache newCache = new AccountCache();
+        newCache.enabled = enabled;
+        newCache.maxSize = cacheSize;
+        newCache.ttl = Duration.ofMinutes(10);
+        newCache.registry = new SimpleMeterRegistry();
+        newCache.init();
+        return newCache;
+    }
+
+    private Account read(AccountCache accountCache) {
+        String id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        Optional<Account> cached = accountCache.get(id);
+        if (cached.isPresent()) return cached.get();
+
+        Account account = new Account(store.get(id)); //what a repository read would hand back
+        accountCache.put(account);
+        return account;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Account readThroughCache() {
+        return read(cache);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Account readThroughCacheContended() {
+        return read(cache);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Account readWithoutCache() {
+        return read(disabled);
+    }
+}
@@ -17,12 +17,39 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account;
 
+import com.ibm.cloud.cloudant.v1.Cloudant;
+import com.ibm.cloud.cloudant.v1.model.BulkDocs;
+import com.ibm.cloud.cloudant.v1.model.DocsResultRow;
+import com.ibm.cloud.cloudant.v1.model.Document;
+import com.ibm.cloud.cloudant.v1.model.DocumentResult;
+import com.ibm.cloud.cloudant.v1.model.PostAllDocsOptions;
+import com.ibm.cloud.cloudant.v1.model.PostBulkDocsOptions;
+import com.ibm.cloud.cloudant.v1.model.PutDocumentOptions;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.client.ODMClient;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.client.WatsonClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountCache;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountExporter;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountPager;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountRepository;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountStatistics;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.OwnerIndex;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountBatch;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountPage;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountStats;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Feedback;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.JsonCodecs;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Settlement;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.SettlementResult;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonInput;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.ledger.CommissionLedger;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LoyaltyDistribution;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.protobuf.ProtobufProvider;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
@@ -37,14 +64,22 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.eclipse.microprofile.auth.LoginConfig;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.jwt.JsonWebToken;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -64,23 +99,10 @@ public class AccountService {
     private static final double DONT_RECALCULATE = -1.0;
     private static final int CONFLICT = 409;         //odd that JAX-RS has no ConflictException
     private static final String FAIL = "FAIL";      //trying to create an account with this name will always throw a 400
-    private static final String DELAY = "com.ibm.hybrid.cloud.sample.stocktrader.account.delayUpdate";
-
-    //we'll define an mpMetrics gauge per loyalty level
-    private static final String BASIC = "basic";
-    private static final String BRONZE = "bronze";
-    private static final String SILVER = "silver";
-    private static final String GOLD = "gold";
-    private static final String PLATINUM = "platinum";
-    private static final String UNKNOWN = "unknown";
+
     private static final String DOLLARS = "USD";
+    private static final String NDJSON = "application/x-ndjson";
     private final AccountRepository accountDbRepository;
-    private final int basic = 0;
-    private final int bronze = 0;
-    private final int silver = 0;
-    private final int gold = 0;
-    private final int platinum = 0;
-    private final int unknown = 0; //loyalty level counts
     @Inject
     JsonWebToken jwt;
     @ConfigProperty(name = "odm.id", defaultValue = "odmAdmin")
@@ -91,7 +113,10 @@ public class AccountService {
     String watsonId;
     @ConfigProperty(name = "watson.pwd")
     String watsonPwd; //if using an API Key, it goes here
-    private boolean delayUpdate = false;
+    @ConfigProperty(name = "account.update.max-attempts", defaultValue = "3")
+    int maxUpdateAttempts;
+    @ConfigProperty(name = "account.loyalty.parallel", defaultValue = "true")
+    boolean parallelLoyalty;
     @Inject
     private AccountUtilities utilities;
     @RestClient
@@ -100,6 +125,30 @@ public class AccountService {
     private WatsonClient watsonClient;
     @Inject
     private Tracer tracer;
+    @Inject
+    private AccountCache accountCache;
+    @Inject
+    private MeterRegistry registry;
+    @Inject
+    private AccountUpdateSerializer updateSerializer;
+    @Inject
+    private BlockingExecutor blockingExecutor;
+    @Inject
+    private CommissionLedger ledger;
+    @Inject
+    private CouchDbClient couchDbClient;
+    @Inject
+    private AccountExporter exporter;
+    @Inject
+    private AccountPager pager;
+    @Inject
+    private DependencyMetrics dependencyMetrics;
+    @Inject
+    private LoyaltyDistribution loyaltyDistribution;
+    @Inject
+    private AccountStatistics statistics;
+    @Inject
+    private OwnerIndex ownerIndex;
 
     @Inject
     public AccountService(AccountRepository accountDbRepository) {
@@ -130,7 +179,7 @@ public class AccountService {
 
     @GET
     @Path("/")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
     @RolesAllowed({"StockTrader", "StockViewer"})
     public List<Account> getAllAccounts(@QueryParam("page") @DefaultValue("1") int pageNumber, @QueryParam("pageSize") @DefaultValue("10") int pageSize, @QueryParam("owners") List<String> owners) {
         logger.fine("Entering getAllAccounts");
@@ -142,7 +191,7 @@ public class AccountService {
 
             if (owners.isEmpty()) {
                 try (Scope scope = getAllAccountsSpan.makeCurrent()) {
-                    pageOfAccounts = accountDbRepository.findAll(pageable, Order.by(Sort.asc("owner"))).content();
+                    pageOfAccounts = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findAll", () -> accountDbRepository.findAll(pageable, Order.by(Sort.asc("owner"))).content());
                 } catch (Throwable t) {
                     logException(t);
                     getAllAccountsSpan.recordException(t);
@@ -152,7 +201,7 @@ public class AccountService {
                 }
             } else {
                 try (Scope scope = getAllAccountsSpan.makeCurrent()) {
-                    pageOfAccounts = accountDbRepository.findByOwnerInOrderByOwnerAsc(owners, pageable);
+                    pageOfAccounts = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findByOwnerIn", () -> accountDbRepository.findByOwnerInOrderByOwnerAsc(owners, pageable));
                     //Collections.sort(pageOfAccounts, Comparator.comparing(Account::getOwner));
                     //pageOfAccounts = accountDbRepository.findAll(pageable).content();
                 } catch (Throwable t) {
@@ -166,6 +215,12 @@ public class AccountService {
         } else {
             logger.warning("accountDbRepository is null, so returning empty array.  Investigate why the CDI injection failed for details");
         }
+        if (pageOfAccounts != null && ledger.isEnabled()) {
+            //include any commissions not yet flushed from the ledger, as the other reads do
+            List<Account> overlaid = new ArrayList<>(pageOfAccounts.size());
+            for (Account account : pageOfAccounts) overlaid.add(ledger.overlay(account));
+            pageOfAccounts = overlaid;
+        }
         if (pageOfAccounts != null && !pageOfAccounts.isEmpty()) {
             logger.fine("Returning " + pageOfAccounts.size() + " accounts");
             if (logger.isLoggable(Level.FINE)) {
@@ -176,31 +231,113 @@ public class AccountService {
             }
         }
 
-        /* Commenting out until https://github.com/OpenLiberty/open-liberty/issues/22592 is addressed
-		try {
-			basic=0; bronze=0; silver=0; gold=0; platinum=0; unknown=0; //reset loyalty level counts
-			for (int index=0; index<size; index++) {
-				Account account = accountArray[index];
-				logger.fine("account["+index+"]="+account);
-
-				String loyaltyLevel = account.getLoyalty();
-				if (loyaltyLevel!=null) {
-					if (loyaltyLevel.equalsIgnoreCase(BASIC)) basic++;
-					else if (loyaltyLevel.equalsIgnoreCase(BRONZE)) bronze++;
-					else if (loyaltyLevel.equalsIgnoreCase(SILVER)) silver++;
-					else if (loyaltyLevel.equalsIgnoreCase(GOLD)) gold++;
-					else if (loyaltyLevel.equalsIgnoreCase(PLATINUM)) platinum++;
-					else unknown++;
-				}
-			}
-		} catch (Throwable t) {
-			logException(t);
-		}
-*/
-
         return pageOfAccounts;
     }
 
+    /**
+     * Cursor-based alternative to getAllAccounts: returns a page of accounts in owner order plus a "next" token to
+     * pass back for the following page.  Unlike the page parameter of getAllAccounts, the cost of a page doesn't
+     * grow with how deep it is.
+     */
+    @GET
+    @Path("/page")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed({"StockTrader", "StockViewer"})
+    @Blocking
+    public AccountPage getPageOfAccounts(@QueryParam("next") String pageToken, @QueryParam("pageSize") @DefaultValue("10") int pageSize,
+                                         @QueryParam("owners") List<String> owners) {
+        logger.fine("Entering getPageOfAccounts with page size " + pageSize + ", owners to find: " + owners);
+        if (pageSize < 1) throw new BadRequestException("pageSize must be at least 1");
+
+        AccountPage page;
+        Span findPageSpan = tracer.spanBuilder("pager.findPage()").startSpan();
+        try (Scope scope = findPageSpan.makeCurrent()) {
+            page = pager.findPage(owners, pageSize, pageToken);
+        } catch (Throwable t) {
+            findPageSpan.recordException(t);
+            logger.severe("Error getting page of accounts");
+            logException(t);
+            if (t instanceof ServiceResponseException sre && sre.getStatusCode() == 400) throw new BadRequestException("Invalid page token");
+            throw t;
+        } finally {
+            findPageSpan.end();
+        }
+
+        List<Account> accounts = new ArrayList<>(page.getAccounts().size());
+        for (Account account : page.getAccounts()) accounts.add(ledger.overlay(account));
+        page.setAccounts(accounts);
+
+        logger.fine("Returning " + accounts.size() + " accounts" + (page.getNext() == null ? "; this is the last page" : ""));
+        return page;
+    }
+
+    /**
+     * Streams every account as newline-delimited JSON, for bulk consumers such as reconciliation jobs.  Accounts are
+     * read from CouchDB a page at a time with keyset paging and written out as they arrive, so memory use doesn't
+     * grow with the number of accounts and the last page is as cheap to read as the first.
+     */
+    @GET
+    @Path("/export")
+    @Produces(NDJSON)
+    @RolesAllowed({"StockTrader", "StockViewer"})
+    @Blocking
+    public StreamingOutput exportAccounts() {
+        logger.fine("Entering exportAccounts");
+        return output -> {
+            Span exportSpan = tracer.spanBuilder("exporter.export()").startSpan();
+            try (Scope scope = exportSpan.makeCurrent()) {
+                long count = exporter.export(new AccountExporter.Sink() {
+                    @Override
+                    public void accept(Account account) throws IOException {
+                        writeLine(output, JsonCodecs.toJson(ledger.overlay(account)));
+                    }
+
+                    @Override
+                    public void endOfPage() throws IOException {
+                        output.flush();
+                    }
+                });
+                registry.counter("account.export.accounts").increment(count);
+                logger.fine("Exported " + count + " accounts");
+            } catch (Throwable t) {
+                exportSpan.recordException(t);
+                logger.warning("Error exporting accounts");
+                logException(t);
+                throw t;
+            } finally {
+                exportSpan.end();
+            }
+        };
+    }
+
+    /**
+     * Aggregate figures across all accounts and per loyalty level, read from precomputed CouchDB map/reduce views
+     */
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed({"StockTrader", "StockViewer"})
+    @Blocking
+    public AccountStats getAccountStats() {
+        logger.fine("Entering getAccountStats");
+        Span statsSpan = tracer.spanBuilder("statistics.getStats()").startSpan();
+        try (Scope scope = statsSpan.makeCurrent()) {
+            return dependencyMetrics.time(DependencyMetrics.COUCHDB, "stats", () -> statistics.getStats());
+        } catch (Throwable t) {
+            statsSpan.recordException(t);
+            logger.warning("Error getting account statistics");
+            logException(t);
+            throw t;
+        } finally {
+            statsSpan.end();
+        }
+    }
+
+    private static void writeLine(OutputStream output, String json) throws IOException {
+        output.write(json.getBytes(StandardCharsets.UTF_8));
+        output.write('\n');
+    }
+
 //    @GET
 //    @Path("/byOwner")
 //    @Produces(MediaType.APPLICATION_JSON)
@@ -238,7 +375,7 @@ public class AccountService {
 
     @POST
     @Path("/{owner}")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
 //	@Counted(name="accounts", description="Number of accounts created in the Stock Trader application")
     @RolesAllowed({"StockTrader"})
     public Account createAccount(@PathParam("owner") String owner) {
@@ -249,30 +386,28 @@ public class AccountService {
                 throw new BadRequestException("Invalid value for account owner: " + owner);
             }
 
-            Span findByOwnerQuerySpan = tracer.spanBuilder("accountDbRepository.findByOwner(owner).findFirst()").startSpan();
-            try (Scope childScope = findByOwnerQuerySpan.makeCurrent()) {
-                boolean ownerExistInRepo = accountDbRepository.findByOwner(owner).isPresent();
-                if (ownerExistInRepo) {
-                    logger.warning("Account already exists for: " + owner);
-                    throw new Exception();
-                }
-            } catch (Throwable t) {
-                findByOwnerQuerySpan.recordException(t);
+            //no query needed for a new owner: CouchDB refuses a second document with the same id
+            if (ownerIndex.contains(owner) && ownerStillExists(owner)) {
+                logger.warning("Account already exists for: " + owner);
                 throw new WebApplicationException("Account already exists for " + owner + "!", CONFLICT);
-            } finally {
-                findByOwnerQuerySpan.end();
             }
 
             //loyalty="Basic", balance=50.0, commissions=0.0, free=0, sentiment="Unknown", nextCommission=9.99
             account = new Account(owner);
+            account.setId(OwnerIndex.idFor(owner));
 
             logger.fine("Creating account for " + owner);
             Span createAccountSpan = tracer.spanBuilder("accountDbRepository.save(account)").startSpan();
             try (Scope childScope = createAccountSpan.makeCurrent()) {
-                account = accountDbRepository.save(account);
+                account = insertAccount(account);
             } catch (Throwable t) {
-                logException(t);
                 createAccountSpan.recordException(t);
+                if (CouchDbClient.isConflict(t)) {
+                    logger.warning("Account already exists for: " + owner); //created by another replica since the index was loaded
+                    ownerIndex.put(owner, OwnerIndex.idFor(owner));
+                    throw new WebApplicationException("Account already exists for " + owner + "!", CONFLICT);
+                }
+                logException(t);
                 account = null;
             } finally {
                 createAccountSpan.end();
@@ -300,58 +435,27 @@ public class AccountService {
 
     @GET
     @Path("/{id}")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
     @RolesAllowed({"StockTrader", "StockViewer"})
-    @Blocking
-    public Account getAccount(@PathParam("id") String id, @QueryParam("total") double total) {
+    public CompletionStage<Account> getAccount(@PathParam("id") String id, @QueryParam("total") double total) {
+        //include any commissions not yet flushed from the ledger
+        return blockingExecutor.submit(() -> ledger.overlay(loadAccount(id, total, true)));
+    }
+
+    /**
+     * Reads the account and, unless total is DONT_RECALCULATE, recomputes its loyalty level and next commission.
+     * If saveLoyaltyChange is false the caller is responsible for persisting any change (as updateAccount does).
+     */
+    private Account loadAccount(String id, double total, boolean saveLoyaltyChange) {
         Optional<Account> accountOptional;
         Account account = null;
         logger.fine("Entering getAccount for id " + id);
+        // the loyalty level only depends on the total, so ask for it while the account is being read
+        CompletableFuture<String> loyalty = evaluateLoyaltyInParallel(total);
         try {
-            // TODO add a span around this call
-            accountOptional = accountDbRepository.findById(id);
+            accountOptional = findAccount(id);
             if (accountOptional.isPresent()) {
-                account = accountOptional.get();
-                if (total == DONT_RECALCULATE) {
-                    logger.fine("Skipping recalculation of loyalty level and next commission as requested");
-                } else {
-                    String owner = account.getOwner();
-                    String oldLoyalty = account.getLoyalty();
-
-                    logger.fine("Invoking external business rule for " + id);
-                    String loyalty = null;
-                    Span callODMSpan = tracer.spanBuilder("utilities.invokeODM()").startSpan();
-                    try (Scope scope = callODMSpan.makeCurrent()) {
-                        //this can be a call to either IBM ODM, or my simple Lambda function alternative, depending on the URL configured in the CR yaml
-                        loyalty = utilities.invokeODM(odmClient, odmId, odmPwd, owner, total, oldLoyalty, jwt.getName());
-                    } catch (Throwable t) {
-                        callODMSpan.recordException(t);
-                        logger.warning("Error determining account level for " + id);
-                        logException(t);
-                    } finally {
-                        callODMSpan.end();
-                    }
-                    if ((loyalty != null) && !loyalty.equalsIgnoreCase(oldLoyalty)) { //don't rev the doc if nothing's changed
-                        account.setLoyalty(loyalty);
-
-                        int free = account.getFree();
-                        account.setNextCommission(free > 0 ? 0.0 : utilities.getCommission(loyalty));
-
-                        if (!delayUpdate) { //if called from updateAccount, let it drive the update to Cloudant
-                            logger.fine("Calling repository.save(account) for " + id + " in getAccount due to new loyalty level");
-                            Span updateRepo = tracer.spanBuilder("accountDbRepository.save(account)").startSpan();
-                            try (Scope scope = updateRepo.makeCurrent()) {
-                                accountDbRepository.save(account);
-                            } catch (Throwable t) {
-                                callODMSpan.recordException(t);
-                                logger.warning("Error saving account level update for " + id);
-                                logException(t);
-                            } finally {
-                                updateRepo.end();
-                            }
-                        }
-                    }
-                }
+                account = recalculate(accountOptional.get(), total, saveLoyaltyChange, loyalty);
                 logger.fine("Returning " + account);
             } else {
                 logger.warning("Got null in getAccount for " + id + ", rather than expected NoDocumentException");
@@ -359,69 +463,341 @@ public class AccountService {
         } catch (Throwable t) {
             logger.warning("Unknown error finding account for " + id);
             logException(t);
+        } finally {
+            //no-op if it was used; otherwise nobody needs its answer, so abort the ODM call rather than let it finish
+            if (loyalty != null) loyalty.cancel(true);
         }
 
         return account;
     }
 
+    /**
+     * Starts determining the loyalty level for the total with the non-blocking ODM client, so that a remote ODM call
+     * overlaps the CouchDB read instead of following it.  Cancelling the returned future cancels the subscription,
+     * which aborts the ODM call.  Returns null if there's nothing worth overlapping: no recalculation was asked for,
+     * the rules are evaluated locally, or account.loyalty.parallel is false.
+     */
+    private CompletableFuture<String> evaluateLoyaltyInParallel(double total) {
+        if ((total == DONT_RECALCULATE) || !parallelLoyalty || !utilities.isLoyaltyRemote()) return null;
+
+        Span callODMSpan = tracer.spanBuilder("utilities.evaluateLoyaltyAsync()").startSpan();
+        try (Scope scope = callODMSpan.makeCurrent()) {
+            CompletableFuture<String> evaluation = utilities.evaluateLoyaltyAsync(odmClient, total)
+                    .onFailure().recoverWithNull() //already logged; the loyalty level stays as it is
+                    .subscribeAsCompletionStage();
+            evaluation.whenComplete((loyalty, t) -> callODMSpan.end()); //also runs if the evaluation is cancelled
+            return evaluation;
+        }
+    }
+
+    /**
+     * Recomputes the loyalty level and next commission of an account that has already been read, unless total is
+     * DONT_RECALCULATE.  If saveLoyaltyChange is false the caller is responsible for persisting any change.
+     */
+    private Account recalculate(Account account, double total, boolean saveLoyaltyChange) {
+        return recalculate(account, total, saveLoyaltyChange, null);
+    }
+
+    /**
+     * As above, using the loyalty level from evaluateLoyaltyInParallel if there is one
+     */
+    private Account recalculate(Account account, double total, boolean saveLoyaltyChange, CompletableFuture<String> pendingLoyalty) {
+        if (total == DONT_RECALCULATE) {
+            logger.fine("Skipping recalculation of loyalty level and next commission as requested");
+            return account;
+        }
+
+        String id = account.getId();
+        String owner = account.getOwner();
+        String oldLoyalty = account.getLoyalty();
+
+        logger.fine("Invoking external business rule for " + id);
+        String loyalty = null;
+        Span callODMSpan = tracer.spanBuilder(pendingLoyalty != null ? "awaitLoyalty()" : "utilities.invokeODM()").startSpan();
+        try (Scope scope = callODMSpan.makeCurrent()) {
+            if (pendingLoyalty != null) {
+                loyalty = pendingLoyalty.join(); //failures were already turned into null
+                utilities.loyaltyEvaluated(owner, total, oldLoyalty, loyalty); //now the owner is known
+            } else {
+                //this can be a call to either IBM ODM, or my simple Lambda function alternative, depending on the URL configured in the CR yaml
+                loyalty = utilities.invokeODM(odmClient, odmId, odmPwd, owner, total, oldLoyalty);
+            }
+        } catch (Throwable t) {
+            callODMSpan.recordException(t);
+            logger.warning("Error determining account level for " + id);
+            logException(t);
+        } finally {
+            callODMSpan.end();
+        }
+        if ((loyalty != null) && !loyalty.equalsIgnoreCase(oldLoyalty)) { //don't rev the doc if nothing's changed
+            account.setLoyalty(loyalty);
+            utilities.recordLoyaltyChange(account, oldLoyalty, loyalty, jwt.getName());
+
+            int free = account.getFree();
+            account.setNextCommission(free > 0 ? 0.0 : utilities.getCommission(loyalty));
+
+            if (saveLoyaltyChange) { //if called from updateAccount, let it drive the update to Cloudant
+                logger.fine("Calling repository.save(account) for " + id + " in getAccount due to new loyalty level");
+                Span updateRepo = tracer.spanBuilder("accountDbRepository.save(account)").startSpan();
+                try (Scope scope = updateRepo.makeCurrent()) {
+                    account = saveAccount(account);
+                } catch (Throwable t) {
+                    updateRepo.recordException(t);
+                    logger.warning("Error saving account level update for " + id);
+                    logException(t);
+                } finally {
+                    updateRepo.end();
+                }
+            }
+        }
+        return account;
+    }
+
+    @POST
+    @Path("/batch")
+    @Consumes({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
+    @RolesAllowed({"StockTrader", "StockViewer"})
+    @Blocking
+    public List<Account> getAccounts(AccountBatch batch) {
+        if ((batch == null) || (batch.getIds() == null)) throw new BadRequestException("No account ids specified");
+        logger.fine("Entering getAccounts for " + batch.getIds().size() + " ids");
+
+        List<Account> accounts = new ArrayList<>();
+        Map<String, Account> found = findAccounts(batch.getIds());
+        Map<String, Double> totals = (batch.getTotals() != null) ? batch.getTotals() : Collections.emptyMap();
+        for (String id : new LinkedHashSet<>(batch.getIds())) {
+            Account account = found.get(id);
+            if (account == null) {
+                logger.fine("No account found for " + id + " in getAccounts");
+                continue;
+            }
+            Double total = totals.get(id);
+            try {
+                if (total != null) account = recalculate(account, total, true);
+            } catch (Throwable t) {
+                logger.warning("Error recalculating loyalty for " + id + " in getAccounts");
+                logException(t);
+            }
+            accounts.add(ledger.overlay(account));
+        }
+
+        logger.fine("Returning " + accounts.size() + " accounts");
+        return accounts;
+    }
+
     @PUT
     @Path("/{id}")
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
     @RolesAllowed({"StockTrader"})
-    @Blocking
-    public Account updateAccount(@PathParam("id") String id, @QueryParam("total") double total) {
+    public CompletionStage<Account> updateAccount(@PathParam("id") String id, @QueryParam("total") double total) {
         logger.fine("Entering updateAccount");
-        this.delayUpdate = true;
 
-        Account account = null;
-        try {
-            account = getAccount(id, total); //this computes new loyalty, etc.
+        //concurrent trades for the same account are folded into one read-modify-write, run on the BlockingExecutor;
+        //a trade queued behind another just waits on this stage rather than holding a thread
+        return updateSerializer.submit(id, total, this::applyTrades)
+                .thenApply(account -> {
+                    if (account == null) {
+                        logger.warning("Account is null for " + id + " in updateAccount");
+                    }
+                    return account;
+                })
+                .exceptionally(t -> {
+                    logger.warning("Error in updateAccount for " + id);
+                    logException((t instanceof CompletionException) && (t.getCause() != null) ? t.getCause() : t);
+                    return null;
+                });
+    }
 
-            if (account != null) {
-                String owner = account.getOwner();
-                String loyalty = account.getLoyalty();
+    /**
+     * Applies a batch of trades to the account in one save.  Loyalty is computed from the most recent trade's total,
+     * since that is the latest portfolio total, and then each trade is charged at that level.
+     */
+    private Account applyTrades(String id, List<Double> totals) {
+        double total = totals.get(totals.size() - 1);
+        if (ledger.isEnabled()) return recordTrades(id, total, totals.size());
 
-                double commission = utilities.getCommission(loyalty);
+        Account account = loadAccount(id, total, false); //this computes new loyalty, etc.
+        if (account == null) return null;
 
-                int free = account.getFree();
-                if (free > 0) { //use a free trade if available
-                    free--;
-                    commission = 0.0;
+        return saveWithRetry(account, total, latest -> {
+            for (int trade = 0; trade < totals.size(); trade++) utilities.chargeCommission(latest);
+        });
+    }
 
-                    logger.info("Using free trade for " + owner);
-                    account.setFree(free);
-                } else {
-                    double commissions = account.getCommissions();
-                    commissions += commission;
+    /**
+     * Ledger variant of applyTrades: the account document is only rewritten if the loyalty level changes, and each
+     * trade's commission is appended to the CommissionLedger, which folds them into the document in batches
+     */
+    private Account recordTrades(String id, double total, int trades) {
+        Account account = ledger.overlay(loadAccount(id, total, true));
+        if (account == null) return null;
 
-                    double balance = account.getBalance();
-                    balance -= commission;
+        for (int trade = 0; trade < trades; trade++) {
+            double commissions = account.getCommissions();
+            double balance = account.getBalance();
+            int free = account.getFree();
+            utilities.chargeCommission(account);
+            ledger.record(id, account.getCommissions() - commissions, account.getBalance() - balance, account.getFree() - free);
+        }
+        return account;
+    }
 
-                    logger.fine("Charging commission of $" + commission + " for " + owner);
-                    account.setCommissions(commissions);
-                    account.setBalance(balance);
-                }
+    /**
+     * Applies the change to the account and saves it.  The save is conditional on the account's _rev, so if another
+     * request updated the document in the meantime CouchDB answers 409; in that case the account is re-read (and its
+     * loyalty recomputed) and the change applied again, up to account.update.max-attempts times in total.
+     */
+    private Account saveWithRetry(Account account, double total, Consumer<Account> change) {
+        String id = account.getId();
+        for (int attempt = 1; ; attempt++) {
+            change.accept(account);
 
-                logger.fine("Updating account into Cloudant: " + account);
-                Span saveToDatabaseSpan = tracer.spanBuilder("accountDbRepository.save(account)").startSpan();
-                try (Scope scope = saveToDatabaseSpan.makeCurrent()) {
-                    accountDbRepository.save(account);
-                } catch (Throwable t) {
+            logger.fine("Updating account into Cloudant: " + account);
+            Span saveToDatabaseSpan = tracer.spanBuilder("accountDbRepository.save(account)").startSpan();
+            try (Scope scope = saveToDatabaseSpan.makeCurrent()) {
+                Account saved = saveAccount(account);
+                return (saved != null) ? saved : account;
+            } catch (Throwable t) {
+                saveToDatabaseSpan.recordException(t);
+                if (!CouchDbClient.isConflict(t) || (attempt >= maxUpdateAttempts)) {
                     logException(t);
-                    saveToDatabaseSpan.recordException(t);
-                    logger.severe("Error getting accounts");
-                } finally {
-                    saveToDatabaseSpan.end();
+                    logger.severe("Error saving account " + id + " after " + attempt + " attempt(s)");
+                    return account;
                 }
-            } else {
-                logger.warning("Account is null for " + id + " in updateAccount");
+                logger.info("Conflict saving account " + id + " on attempt " + attempt + ". Retrying with the latest revision.");
+                registry.counter("account.update.conflicts").increment();
+            } finally {
+                saveToDatabaseSpan.end();
+            }
+
+            Account latest = loadAccount(id, total, false);
+            if (latest == null) {
+                logger.warning("Account " + id + " disappeared while retrying an update");
+                return null;
+            }
+            account = latest;
+        }
+    }
+
+    /**
+     * Settles many trades in a few round trips instead of one PUT per trade.  Trades are grouped by account; each
+     * account's loyalty is computed from its last total and every trade is charged as updateAccount would, then all
+     * the accounts are read with one _all_docs request and written with one _bulk_docs request.  Accounts whose
+     * write conflicted with another update are re-read and retried, up to account.update.max-attempts rounds, and
+     * each account's outcome is reported separately.
+     */
+    @POST
+    @Path("/settlement")
+    @Consumes({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
+    @RolesAllowed({"StockTrader"})
+    @Blocking
+    public List<SettlementResult> settleTrades(List<Settlement> settlements) {
+        if (settlements == null) throw new BadRequestException("No trades to settle");
+        if (!couchDbClient.isConfigured()) throw new ServiceUnavailableException("Bulk settlement requires the jnosql.* properties");
+        logger.fine("Entering settleTrades for " + settlements.size() + " trades");
+
+        Map<String, List<Double>> totalsById = new LinkedHashMap<>();
+        for (Settlement settlement : settlements) {
+            if (settlement == null || settlement.getId() == null) throw new BadRequestException("Every trade needs an account id");
+            totalsById.computeIfAbsent(settlement.getId(), id -> new ArrayList<>()).add(settlement.getTotal());
+        }
+
+        Map<String, SettlementResult> results = new LinkedHashMap<>();
+        totalsById.forEach((id, totals) -> results.put(id, new SettlementResult(id, SettlementResult.CONFLICT, totals.size())));
+
+        Cloudant service = couchDbClient.getService();
+        String databaseName = couchDbClient.getDatabaseName();
+        Set<String> remaining = new LinkedHashSet<>(totalsById.keySet());
+        Span settleSpan = tracer.spanBuilder("couchDbClient.postBulkDocs(settlement)").startSpan();
+        try (Scope scope = settleSpan.makeCurrent()) {
+            for (int attempt = 1; !remaining.isEmpty() && attempt <= maxUpdateAttempts; attempt++) {
+                if (attempt > 1) {
+                    logger.info("Retrying settlement of " + remaining.size() + " accounts after conflicts");
+                    registry.counter("account.update.conflicts").increment(remaining.size());
+                }
+                remaining = settleRound(service, databaseName, remaining, totalsById, results);
             }
         } catch (Throwable t) {
-            logger.warning("Error in updateAccount for " + id);
+            settleSpan.recordException(t);
+            logger.warning("Error settling trades");
             logException(t);
+            for (String id : remaining) {
+                SettlementResult result = results.get(id);
+                result.setStatus(SettlementResult.ERROR);
+                result.setMessage(t.getClass().getName() + ": " + t.getMessage());
+            }
+        } finally {
+            settleSpan.end();
         }
 
-        return account;
+        for (SettlementResult result : results.values()) {
+            registry.counter("account.settlement.accounts", "status", result.getStatus()).increment();
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    /**
+     * One read-modify-write pass of settleTrades over the given accounts.  Returns the ids whose write conflicted.
+     */
+    private Set<String> settleRound(Cloudant service, String databaseName, Set<String> ids, Map<String, List<Double>> totalsById,
+                                    Map<String, SettlementResult> results) {
+        List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findByIds", () ->
+                service.postAllDocs(new PostAllDocsOptions.Builder()
+                        .db(databaseName)
+                        .keys(new ArrayList<>(ids))
+                        .includeDocs(true)
+                        .build()).execute().getResult().getRows());
+
+        Map<String, Account> charged = new HashMap<>();
+        List<Document> documents = new ArrayList<>();
+        for (DocsResultRow row : rows) {
+            SettlementResult result = results.get(row.getKey());
+            if (result == null) continue;
+            Document document = row.getDoc();
+            if (document == null) {
+                result.setStatus(SettlementResult.NOT_FOUND);
+                continue;
+            }
+
+            List<Double> totals = totalsById.get(row.getKey());
+            Account account = recalculate(AccountDocuments.toAccount(document), totals.get(totals.size() - 1), false);
+            for (int trade = 0; trade < totals.size(); trade++) utilities.chargeCommission(account);
+            AccountDocuments.copyInto(account, document);
+            charged.put(account.getId(), account);
+            documents.add(document);
+        }
+        if (documents.isEmpty()) return Collections.emptySet();
+
+        List<DocumentResult> writes = dependencyMetrics.time(DependencyMetrics.COUCHDB, "saveAll", () ->
+                service.postBulkDocs(new PostBulkDocsOptions.Builder()
+                        .db(databaseName)
+                        .bulkDocs(new BulkDocs.Builder().docs(documents).build())
+                        .build()).execute().getResult());
+
+        Set<String> conflicts = new LinkedHashSet<>();
+        for (DocumentResult write : writes) {
+            String id = write.getId();
+            SettlementResult result = results.get(id);
+            if (result == null) continue;
+            accountCache.invalidate(id);
+            if (Boolean.TRUE.equals(write.isOk())) {
+                Account account = charged.get(id);
+                account.setRev(write.getRev());
+                loyaltyDistribution.saved(account, false);
+                result.setStatus(SettlementResult.OK);
+                result.setMessage(null);
+                result.setAccount(account);
+            } else if ("conflict".equals(write.getError())) {
+                conflicts.add(id);
+            } else {
+                result.setStatus(SettlementResult.ERROR);
+                result.setMessage(write.getError() + ": " + write.getReason());
+            }
+        }
+        logger.fine("Settled " + (documents.size() - conflicts.size()) + " accounts in one _bulk_docs request; " + conflicts.size() + " conflicts");
+        return conflicts;
     }
 
     @DELETE
@@ -433,14 +809,20 @@ public class AccountService {
         Account account = null;
         logger.fine("Entering deleteAccount for " + id);
         try {
-            accountOptional = accountDbRepository.findById(id);
+            accountOptional = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findById", () -> accountDbRepository.findById(id));
 
             if (accountOptional.isPresent()) {
                 account = accountOptional.get();
                 String owner = account.getOwner();
                 logger.fine("Deleting account for " + owner);
 
-                accountDbRepository.deleteById(id);
+                dependencyMetrics.time(DependencyMetrics.COUCHDB, "deleteById", () -> {
+                    accountDbRepository.deleteById(id);
+                    return null;
+                });
+                accountCache.invalidate(id);
+                ownerIndex.remove(id);
+                loyaltyDistribution.deleted(account);
 
                 logger.fine("Successfully deleted account for " + owner); //exception would have been thrown otherwise
             } else {
@@ -456,69 +838,194 @@ public class AccountService {
 
     @POST
     @Path("/{id}/feedback")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
+    @Produces({MediaType.APPLICATION_JSON, ProtobufProvider.APPLICATION_PROTOBUF})
     @RolesAllowed({"StockTrader"})
-    public Feedback submitFeedback(@PathParam("id") String id, WatsonInput input) {
-        String sentiment = "Unknown";
-        Feedback feedback = null;
-        try {
-            logger.fine("Getting account for " + id + " in submitFeedback");
-            Account account = getAccount(id, DONT_RECALCULATE);
-
-            if (account != null) {
-                int freeTrades = account.getFree();
+    public CompletionStage<Feedback> submitFeedback(@PathParam("id") String id, WatsonInput input) {
+        return blockingExecutor.submit(() -> {
+            String sentiment = "Unknown";
+            Feedback feedback = null;
+            try {
+                logger.fine("Getting account for " + id + " in submitFeedback");
+                Account account = loadAccount(id, DONT_RECALCULATE, false);
 
-                feedback = utilities.invokeWatson(watsonClient, watsonId, watsonPwd, input);
-                freeTrades += feedback.getFree();
+                if (account != null) {
+                    Feedback result = utilities.invokeWatson(watsonClient, watsonId, watsonPwd, input);
+                    feedback = result;
 
-                account.setFree(freeTrades);
-                account.setSentiment(feedback.getSentiment());
-                accountDbRepository.save(account);
+                    saveWithRetry(account, DONT_RECALCULATE, latest -> {
+                        latest.setFree(latest.getFree() + result.getFree());
+                        latest.setSentiment(result.getSentiment());
+                    });
 
-                logger.info("Returning feedback: " + feedback);
-            } else {
-                logger.warning("Account not found for " + id + " in submitFeedback");
+                    logger.info("Returning feedback: " + feedback);
+                } else {
+                    logger.warning("Account not found for " + id + " in submitFeedback");
+                }
+            } catch (Throwable t) {
+                logger.warning("Failure submitting feedback for " + id);
+                logException(t);
             }
-        } catch (Throwable t) {
-            logger.warning("Failure submitting feedback for " + id);
-            logException(t);
+
+            return feedback;
+        });
+    }
+
+    /**
+     * Confirms an OwnerIndex hit by reading the indexed document from CouchDB, bypassing the AccountCache.  The index
+     * can be stale (an account deleted directly in the database, with the changes feed off), so an entry whose document
+     * is gone, or now belongs to someone else, is dropped and the owner is free to create an account again.
+     */
+    private boolean ownerStillExists(String owner) {
+        String id = ownerIndex.idOf(owner);
+        if (id == null) return false;
+
+        Optional<Account> indexed = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findById", () -> accountDbRepository.findById(id));
+        if (indexed.isPresent() && owner.equals(indexed.get().getOwner())) return true;
+
+        logger.info("Dropping stale owner index entry for " + owner + " (account " + id + ")");
+        ownerIndex.remove(id);
+        accountCache.invalidate(id);
+        return false;
+    }
+
+    /**
+     * Read-through lookup of an account: served from the AccountCache when possible, otherwise from CouchDB
+     */
+    private Optional<Account> findAccount(String id) {
+        Optional<Account> accountOptional = accountCache.get(id);
+        if (accountOptional.isPresent()) {
+            logger.fine("Found account " + id + " in the account cache");
+            return accountOptional;
         }
 
-        return feedback;
+        long stamp = accountCache.stamp();
+        Span findByIdSpan = tracer.spanBuilder("accountDbRepository.findById(id)").startSpan();
+        try (Scope scope = findByIdSpan.makeCurrent()) {
+            accountOptional = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findById", () -> accountDbRepository.findById(id));
+        } catch (Throwable t) {
+            findByIdSpan.recordException(t);
+            throw t;
+        } finally {
+            findByIdSpan.end();
+        }
+        accountOptional.ifPresent(account -> account.setPersistedLoyalty(account.getLoyalty()));
+        accountOptional.ifPresent(account -> accountCache.put(account, stamp));
+        return accountOptional;
     }
 
-    /* Commenting out until https://github.com/OpenLiberty/open-liberty/issues/22592 is addressed
-        @Gauge(name="account_loyalty", tags="level=basic", displayName="Basic", unit=MetricUnits.NONE)
-        public int getBasic() {
-            return basic;
+    /**
+     * Reads several accounts at once: cached ones are served from the AccountCache, and the rest are fetched with a
+     * single _all_docs request.  Ids that don't exist are simply absent from the returned map.
+     */
+    private Map<String, Account> findAccounts(Collection<String> ids) {
+        Map<String, Account> accounts = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : new LinkedHashSet<>(ids)) {
+            Optional<Account> cached = accountCache.get(id);
+            if (cached.isPresent()) accounts.put(id, cached.get());
+            else if (id != null) missing.add(id);
         }
+        if (missing.isEmpty()) return accounts;
 
-        @Gauge(name="account_loyalty", tags="level=bronze", displayName="Bronze", unit=MetricUnits.NONE)
-        public int getBronze() {
-            return bronze;
+        if (!couchDbClient.isConfigured()) { //fall back to one read per account
+            for (String id : missing) findAccount(id).ifPresent(account -> accounts.put(id, account));
+            return accounts;
         }
 
-        @Gauge(name="account_loyalty", tags="level=silver", displayName="Silver", unit=MetricUnits.NONE)
-        public int getSilver() {
-            return silver;
+        long stamp = accountCache.stamp();
+        Span allDocsSpan = tracer.spanBuilder("couchDbClient.postAllDocs(keys)").startSpan();
+        try (Scope scope = allDocsSpan.makeCurrent()) {
+            PostAllDocsOptions options = new PostAllDocsOptions.Builder()
+                    .db(couchDbClient.getDatabaseName())
+                    .keys(missing)
+                    .includeDocs(true)
+                    .build();
+            List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findByIds", () ->
+                    couchDbClient.getService().postAllDocs(options).execute().getResult().getRows());
+            for (DocsResultRow row : rows) {
+                if (row.getDoc() == null) continue; //not found, or deleted
+                Account account = AccountDocuments.toAccount(row.getDoc());
+                accountCache.put(account, stamp);
+                accounts.put(account.getId(), account);
+            }
+        } catch (Throwable t) {
+            allDocsSpan.recordException(t);
+            throw t;
+        } finally {
+            allDocsSpan.end();
         }
+        logger.fine("Read " + missing.size() + " accounts in one _all_docs request");
+        return accounts;
+    }
 
-        @Gauge(name="account_loyalty", tags="level=gold", displayName="Gold", unit=MetricUnits.NONE)
-        public int getGold() {
-            return gold;
+    /**
+     * Creates a new account under the id it already has, with a plain PUT of the document, rather than via the
+     * repository's save (which reads the id first to decide between an insert and an update).  A 409 from CouchDB
+     * means there's already an account with that id, and is thrown to the caller.
+     */
+    private Account insertAccount(Account account) {
+        if (!couchDbClient.isConfigured()) return saveAccount(account);
+
+        try {
+            Document document = AccountDocuments.newDocument(account);
+            DocumentResult result = dependencyMetrics.time(DependencyMetrics.COUCHDB, "create", () ->
+                    couchDbClient.getService().putDocument(new PutDocumentOptions.Builder()
+                            .db(couchDbClient.getDatabaseName())
+                            .docId(account.getId())
+                            .document(document)
+                            .build()).execute().getResult());
+            account.setRev(result.getRev());
+            account.setPersistedLoyalty(account.getLoyalty());
+            ownerIndex.put(account.getOwner(), account.getId());
+            loyaltyDistribution.saved(account, true);
+            return account;
+        } finally {
+            accountCache.invalidate(account.getId());
         }
+    }
 
-        @Gauge(name="account_loyalty", tags="level=platinum", displayName="Platinum", unit=MetricUnits.NONE)
-        public int getPlatinum() {
-            return platinum;
+    /**
+     * Saves the account to CouchDB, invalidating any cached copy whether or not the write succeeded
+     */
+    private Account saveAccount(Account account) {
+        boolean created = (account.getRev() == null);
+        if (!created && couchDbClient.isConfigured()) return replaceAccount(account);
+        try {
+            Account saved = dependencyMetrics.time(DependencyMetrics.COUCHDB, "save", () -> accountDbRepository.save(account));
+            if (created && (saved != null)) ownerIndex.put(saved.getOwner(), saved.getId());
+            loyaltyDistribution.saved(account, created);
+            if (saved != null) saved.setPersistedLoyalty(account.getLoyalty());
+            return saved;
+        } finally {
+            accountCache.invalidate(account.getId());
         }
+    }
 
-        @Gauge(name="account_loyalty", tags="level=unknown", displayName="Unknown", unit=MetricUnits.NONE)
-        public int getUnknown() {
-            return unknown;
+    /**
+     * Writes an account that was read from CouchDB back with a PUT conditional on the _rev it was read at, as the
+     * ReactiveAccountRepository does.  Going through the Cloudant SDK rather than the repository means a lost race
+     * surfaces as a ServiceResponseException with status 409, which CouchDbClient.isConflict can recognize for certain.
+     */
+    private Account replaceAccount(Account account) {
+        try {
+            Document document = AccountDocuments.newDocument(account);
+            document.setRev(account.getRev());
+            DocumentResult result = dependencyMetrics.time(DependencyMetrics.COUCHDB, "save", () ->
+                    couchDbClient.getService().putDocument(new PutDocumentOptions.Builder()
+                            .db(couchDbClient.getDatabaseName())
+                            .docId(account.getId())
+                            .document(document)
+                            .build()).execute().getResult());
+            account.setRev(result.getRev());
+            loyaltyDistribution.saved(account, false);
+            account.setPersistedLoyalty(account.getLoyalty());
+            return account;
+        } finally {
+            accountCache.invalidate(account.getId());
         }
-    */
+    }
+
     private void logException(Throwable t) {
         logger.warning(t.getClass().getName() + ": " + t.getMessage());
 
@@ -0,0 +1,174 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Serializes trades against the same account within this pod, and coalesces trades that arrive together into a
+ * single read-modify-write of the account document.
+ * <p>
+ * Each account with trades in flight has a lane holding the trades waiting behind the one being applied.  The first
+ * trade for an idle account leads: a task on the BlockingExecutor applies it plus whatever has queued up, then hands
+ * the lane to the oldest trade still waiting, whose batch is applied by a new task.  Trades that queue up only get a
+ * CompletionStage, so no thread waits for its turn, and the lane is only ever touched inside
+ * ConcurrentHashMap.compute for that account, so no lock is held across the CouchDB read, the loyalty call or the
+ * CouchDB write.  A burst of trades for one account therefore occupies one thread at a time, and trades for other
+ * accounts never wait on it.  Hot accounts see one CouchDB write per batch rather than one per trade, and no _rev
+ * conflicts between requests handled by the same pod.
+ */
+@ApplicationScoped
+public class AccountUpdateSerializer {
+    private static final Logger logger = Logger.getLogger(AccountUpdateSerializer.class.getName());
+
+    /**
+     * Applies a batch of trades, given as the portfolio total reported with each one (oldest first), to an account
+     */
+    @FunctionalInterface
+    public interface BatchUpdate {
+        Account apply(String id, List<Double> totals);
+    }
+
+    @Inject
+    MeterRegistry registry;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    // an account only has a lane while one of its trades is being applied
+    private final ConcurrentHashMap<String, ArrayDeque<Trade>> lanes = new ConcurrentHashMap<>();
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private Counter trades;
+    private Counter writes;
+
+    @PostConstruct
+    void init() {
+        trades = registry.counter("account.update.trades");
+        writes = registry.counter("account.update.writes");
+        registry.gauge("account.update.queue.depth", depth);
+        // average number of trades folded into each write; 1.0 means no coalescing is happening
+        registry.gauge("account.update.coalescing.ratio", this, serializer -> {
+            double count = serializer.writes.count();
+            return count == 0 ? 1.0 : serializer.trades.count() / count;
+        });
+    }
+
+    /**
+     * Applies one trade to the account, possibly as part of a batch with other trades for the same account.  The
+     * returned stage completes with the account as saved after the batch.
+     */
+    public CompletionStage<Account> submit(String id, double total, BatchUpdate update) {
+        Trade trade = new Trade(total);
+        // whichever thread starts this trade's batch, it runs in this request's context (the JWT, the span, etc.)
+        trade.batch = blockingExecutor.contextual(() -> {
+            lead(id, trade, update);
+            return null;
+        });
+        depth.incrementAndGet();
+
+        boolean[] leading = {false};
+        lanes.compute(id, (key, waiting) -> {
+            if (waiting == null) {
+                leading[0] = true; //idle account, so this trade goes first
+                return new ArrayDeque<>();
+            }
+            waiting.add(trade);
+            return waiting;
+        });
+
+        // otherwise the trade is applied as part of an earlier trade's batch, or leads once that batch is saved
+        if (leading[0]) schedule(id, trade, update);
+        return trade.result;
+    }
+
+    private void schedule(String id, Trade first, BatchUpdate update) {
+        try {
+            blockingExecutor.submit(first.batch);
+        } catch (RejectedExecutionException ree) { //shutting down, so nothing else would complete this trade
+            depth.decrementAndGet();
+            first.result.completeExceptionally(ree);
+            handOff(id, update);
+        }
+    }
+
+    /**
+     * Applies the leading trade together with every trade queued behind it, then passes the lane on
+     */
+    private void lead(String id, Trade first, BatchUpdate update) {
+        List<Trade> batch = new ArrayList<>();
+        batch.add(first);
+        lanes.computeIfPresent(id, (key, waiting) -> {
+            batch.addAll(waiting);
+            waiting.clear();
+            return waiting;
+        });
+        depth.addAndGet(-batch.size());
+
+        List<Double> totals = new ArrayList<>(batch.size());
+        for (Trade next : batch) totals.add(next.total);
+        if (batch.size() > 1) logger.fine("Coalescing " + batch.size() + " trades for account " + id);
+
+        try {
+            Account account = update.apply(id, totals);
+            batch.forEach(next -> next.result.complete(account));
+        } catch (Throwable t) {
+            batch.forEach(next -> next.result.completeExceptionally(t));
+        } finally {
+            trades.increment(batch.size());
+            writes.increment();
+            handOff(id, update);
+        }
+    }
+
+    /**
+     * Gives the lane to the oldest trade that arrived while the last batch was being applied, or retires it
+     */
+    private void handOff(String id, BatchUpdate update) {
+        Trade[] successor = {null};
+        lanes.computeIfPresent(id, (key, waiting) -> {
+            successor[0] = waiting.poll();
+            return (successor[0] != null) ? waiting : null;
+        });
+        if (successor[0] != null) schedule(id, successor[0], update);
+    }
+
+    private static final class Trade {
+        private final double total;
+        private final CompletableFuture<Account> result = new CompletableFuture<>();
+        private Supplier<Void> batch; //applies the batch this trade leads, if it gets to lead one
+
+        private Trade(double total) {
+            this.total = total;
+        }
+    }
+}
@@ -20,19 +20,26 @@ package com.ibm.hybrid.cloud.sample.stocktrader.account;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.client.ODMClient;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.client.WatsonClient;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.*;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LocalLoyaltyRules;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LoyaltyDecisionCache;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.messaging.LoyaltyChangePublisher;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.Tracer;
 import io.opentelemetry.context.Scope;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
 import io.smallrye.common.annotation.Blocking;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import jakarta.jms.*;
+import jakarta.jms.JMSException;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Base64;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -48,9 +55,13 @@ public class AccountUtilities {
     private static final String SILVER = "Silver";
     private static final String GOLD = "Gold";
     private static final String PLATINUM = "Platinum";
+    //values for loyalty.mode
+    private static final String REMOTE = "remote";  //ask ODM (or the Lambda alternative) at odm.url
+    private static final String LOCAL = "local";    //evaluate the rule in-process via LocalLoyaltyRules
+    private static final String SHADOW = "shadow";  //ask ODM, but also evaluate locally and report disagreements
     private boolean odmBroken = false; //used to only report failures of calls to ODM once, rather than every time
     @Inject
-    private ConnectionFactory jmsConnectionFactory;
+    private LoyaltyChangePublisher loyaltyChangePublisher;
 
     @ConfigProperty(name = "mq.queue", defaultValue = "LoyaltyLevelChange")
     private String queueName;
@@ -58,9 +69,27 @@ public class AccountUtilities {
     @ConfigProperty(name = "messaging.enabled")
     private boolean useJMS;
 
+    @ConfigProperty(name = "messaging.outbox.enabled", defaultValue = "true")
+    private boolean useOutbox;
+
     @Inject
     private Tracer tracer;
 
+    @Inject
+    private LoyaltyDecisionCache loyaltyDecisionCache;
+
+    @Inject
+    private LocalLoyaltyRules localLoyaltyRules;
+
+    @Inject
+    private MeterRegistry registry;
+
+    @Inject
+    private DependencyMetrics dependencyMetrics;
+
+    @ConfigProperty(name = "loyalty.mode", defaultValue = REMOTE)
+    private String loyaltyMode;
+
     static void logException(Throwable t) {
         logger.warning(t.getClass().getName() + ": " + t.getMessage());
 
@@ -73,21 +102,153 @@ public class AccountUtilities {
     }
 
     @WithSpan
-    String invokeODM(ODMClient odmClient, String odmId, String odmPwd, String owner, double overallTotal, String oldLoyalty, String user) {
+    String invokeODM(ODMClient odmClient, String odmId, String odmPwd, String owner, double overallTotal, String oldLoyalty) {
         String loyalty = null;
         ODMLoyaltyRule input = new ODMLoyaltyRule(overallTotal);
         try {
-            String credentials = odmId + ":" + odmPwd;
-            String basicAuth = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+            if (LOCAL.equalsIgnoreCase(loyaltyMode)) {
+                loyalty = localLoyaltyRules.evaluate(overallTotal);
+                logger.fine("Loyalty level for " + owner + " is " + loyalty + " (local rules version " + localLoyaltyRules.getVersion() + ")");
+            } else {
+                loyalty = invokeRemoteRule(odmClient, odmId, odmPwd, owner, input);
+                if (SHADOW.equalsIgnoreCase(loyaltyMode)) shadowLoyalty(owner, overallTotal, loyalty);
+            }
+
+            if ((oldLoyalty != null) && (loyalty != null) && !oldLoyalty.equalsIgnoreCase(loyalty)) {
+                logger.info("Change in loyalty level detected for owner: " + owner);
+            }
+        } catch (Throwable t) {
+            logger.warning("Unable to get loyalty level, via " + input.toString() + ".  Using cached value instead");
+            logException(t);
+            loyalty = oldLoyalty;
+        }
+        return loyalty;
+    }
 
+    /**
+     * Returns true if invokeODM may have to wait on a remote call, rather than answering from local rules
+     */
+    boolean isLoyaltyRemote() {
+        return !LOCAL.equalsIgnoreCase(loyaltyMode);
+    }
+
+    /**
+     * Non-blocking variant of invokeODM, for the ReactiveAccountService.  Local rules and learned ODM tiers are
+     * answered in-process; otherwise ODM is called without tying up a thread while waiting for it.
+     */
+    Uni<String> invokeODMAsync(ODMClient odmClient, String owner, double overallTotal, String oldLoyalty) {
+        return evaluateLoyaltyAsync(odmClient, overallTotal)
+                .invoke(level -> loyaltyEvaluated(owner, overallTotal, oldLoyalty, level))
+                .onFailure().recoverWithItem(oldLoyalty);
+    }
+
+    /**
+     * The part of invokeODMAsync that doesn't depend on whose account it is, so AccountService can start it before
+     * the account has been read.  Cancelling the subscription aborts a remote ODM call that is still in progress.
+     * Callers pass the answer to loyaltyEvaluated once they know the owner.
+     */
+    Uni<String> evaluateLoyaltyAsync(ODMClient odmClient, double overallTotal) {
+        if (LOCAL.equalsIgnoreCase(loyaltyMode)) return Uni.createFrom().item(() -> localLoyaltyRules.evaluate(overallTotal));
+
+        String cached = loyaltyDecisionCache.lookup(overallTotal);
+        if (cached != null) {
+            logger.fine("Loyalty level for a total of " + overallTotal + " is " + cached + " (from learned ODM tiers)");
+            return Uni.createFrom().item(cached);
+        }
+
+        ODMLoyaltyRule input = new ODMLoyaltyRule(overallTotal);
+        logger.fine("Calling loyalty-level ODM business rule asynchronously for a total of " + overallTotal);
+        return dependencyMetrics.time(DependencyMetrics.ODM, "getLoyaltyLevel", odmClient.getLoyaltyLevelAsync(input))
+                .map(ODMLoyaltyRule::determineLoyalty)
+                .invoke(level -> loyaltyDecisionCache.record(overallTotal, level))
+                .onFailure().invoke(t -> {
+                    logger.warning("Error invoking ODM:" + t.getClass().getName() + ": " + t.getMessage() + ".  Loyalty level will remain unchanged.");
+                    if (!odmBroken) logException(t);
+                    odmBroken = true;
+                });
+    }
+
+    /**
+     * Logs the loyalty level determined for an owner's account, and checks it against the local rules in shadow mode
+     */
+    void loyaltyEvaluated(String owner, double overallTotal, String oldLoyalty, String loyalty) {
+        logger.fine("Loyalty level for " + owner + " is " + loyalty);
+        if (SHADOW.equalsIgnoreCase(loyaltyMode)) shadowLoyalty(owner, overallTotal, loyalty);
+        if ((oldLoyalty != null) && (loyalty != null) && !oldLoyalty.equalsIgnoreCase(loyalty)) {
+            logger.info("Change in loyalty level detected for owner: " + owner);
+        }
+    }
+
+    /**
+     * Queue a notification of a change in loyalty level.  With the outbox enabled (the default) the LoyaltyChange is
+     * added to the account's outbox, so it is persisted atomically with the account update that caused it and later
+     * relayed to JMS by the LoyaltyOutboxRelay.  Otherwise it is handed straight to the LoyaltyChangePublisher.
+     */
+    void recordLoyaltyChange(Account account, String oldLoyalty, String newLoyalty, String user) {
+        recordLoyaltyChange(account, oldLoyalty, newLoyalty, user, true);
+    }
+
+    /**
+     * As above, but if mayWait is false a full publisher queue drops the message rather than waiting for room, so
+     * this can be called on an event loop thread.
+     */
+    void recordLoyaltyChange(Account account, String oldLoyalty, String newLoyalty, String user, boolean mayWait) {
+        if ((oldLoyalty == null) || (newLoyalty == null) || oldLoyalty.equalsIgnoreCase(newLoyalty)) return;
+
+        logger.fine("Should we put a JMS message? " + useJMS);
+        if (!useJMS) return;
+
+        try {
+            LoyaltyChange message = new LoyaltyChange(account.getOwner(), oldLoyalty, newLoyalty);
+            message.setEventId(UUID.randomUUID().toString());
+            if (user != null) message.setId(user); // User in jwt
+            logger.fine(message.toString());
+
+            if (useOutbox) {
+                account.addToOutbox(JsonCodecs.toJson(message));
+            } else {
+                Span invokeJMSSpan = tracer.spanBuilder("invokeJMS(message)").startSpan();
+                try (Scope scope = invokeJMSSpan.makeCurrent()) {
+                    dependencyMetrics.time(DependencyMetrics.JMS, "publish", () -> {
+                        invokeJMS(JsonCodecs.toJson(message), mayWait);
+                        return null;
+                    });
+                } catch (Throwable t) {
+                    logException(t);
+                    invokeJMSSpan.recordException(t);
+                    logger.warning("Unable to send message to JMS provider.  Continuing without notification of change in loyalty level.");
+                } finally {
+                    invokeJMSSpan.end();
+                }
+            }
+        } catch (Throwable t) { //in case MQ is not configured, just log the exception and continue
+            logger.warning("An unexpected error occurred.  Continuing without notification of change in loyalty level.");
+            logException(t);
+        }
+    }
+
+    /**
+     * Determine the loyalty level via the remote ODM business rule, short-circuited by the learned tiers
+     */
+    private String invokeRemoteRule(ODMClient odmClient, String odmId, String odmPwd, String owner, ODMLoyaltyRule input) {
+        String loyalty;
+        double overallTotal = input.getTheLoyaltyDecision().getTradeTotal();
+        String credentials = odmId + ":" + odmPwd;
+        String basicAuth = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+
+        loyalty = loyaltyDecisionCache.lookup(overallTotal);
+        if (loyalty != null) {
+            logger.fine("Loyalty level for " + owner + " is " + loyalty + " (from learned ODM tiers)");
+        } else {
             Span callOdmSpan = tracer.spanBuilder("odmClient.getLoyaltyLevel(input)").startSpan();
             try (Scope scope = callOdmSpan.makeCurrent()) {
                 //call the LoyaltyLevel business rule to get the current loyalty level of this portfolio
                 logger.fine("Calling loyalty-level ODM business rule for " + owner);
                 logger.fine(input.toString());
-                ODMLoyaltyRule result = odmClient.getLoyaltyLevel(/*basicAuth,*/ input);
+                ODMLoyaltyRule result = dependencyMetrics.time(DependencyMetrics.ODM, "getLoyaltyLevel", () -> odmClient.getLoyaltyLevel(/*basicAuth,*/ input));
 
                 loyalty = result.determineLoyalty();
+                loyaltyDecisionCache.record(overallTotal, loyalty);
                 logger.fine("New loyalty level for " + owner + " is " + loyalty);
             } catch (Throwable t) {
                 callOdmSpan.recordException(t);
@@ -97,43 +258,27 @@ public class AccountUtilities {
             } finally {
                 callOdmSpan.end();
             }
+        }
+        return loyalty;
+    }
 
-            if ((oldLoyalty == null) || (loyalty == null)) return loyalty;
-            if (!oldLoyalty.equalsIgnoreCase(loyalty)) try {
-                logger.info("Change in loyalty level detected for owner: " + owner);
-                logger.fine("Should we put a JMS message? " + useJMS);
-
-                if (useJMS) {
-                    LoyaltyChange message = new LoyaltyChange(owner, oldLoyalty, loyalty);
-
-                    if (user != null) message.setId(user); // User in jwt
-
-                    logger.fine(message.toString());
-                    Span invokeJMSSpan = tracer.spanBuilder("invokeJMS(message)").startSpan();
-                    try (Scope scope = invokeJMSSpan.makeCurrent()) {
-                        invokeJMS(message);
-                    } catch (Throwable t) {
-                        logException(t);
-                        invokeJMSSpan.recordException(t);
-                        logger.warning("Unable to send message to JMS provider.  Continuing without notification of change in loyalty level.");
-                        if (t instanceof JMSException) {
-                            Exception linked = ((JMSException) t).getLinkedException(); //get the nested exception from MQ
-                            if (linked != null) logException(linked);
-                        }
-                    } finally {
-                        invokeJMSSpan.end();
-                    }
-                }
-            } catch (Throwable t) { //in case MQ is not configured, just log the exception and continue
-                logger.warning("An unexpected error occurred.  Continuing without notification of change in loyalty level.");
-                logException(t);
+    /**
+     * Evaluate the local rules alongside the remote answer, counting (and logging) any disagreement
+     */
+    private void shadowLoyalty(String owner, double overallTotal, String remoteLoyalty) {
+        if (remoteLoyalty == null) return; //nothing to compare against; the ODM failure has already been logged
+        try {
+            String localLoyalty = localLoyaltyRules.evaluate(overallTotal);
+            boolean agree = remoteLoyalty.equalsIgnoreCase(localLoyalty);
+            registry.counter("loyalty.shadow.evaluations", "outcome", agree ? "agree" : "disagree").increment();
+            if (!agree) {
+                logger.warning("Loyalty rule disagreement for " + owner + " with trade total " + overallTotal + ": remote says "
+                        + remoteLoyalty + ", local rules version " + localLoyaltyRules.getVersion() + " say " + localLoyalty);
             }
-        } catch (Throwable t) {
-            logger.warning("Unable to get loyalty level, via " + input.toString() + ".  Using cached value instead");
+        } catch (Throwable t) { //shadow evaluation must never affect the real answer
+            logger.warning("Error evaluating local loyalty rules in shadow mode");
             logException(t);
-            loyalty = oldLoyalty;
         }
-        return loyalty;
     }
 
     /**
@@ -148,13 +293,38 @@ public class AccountUtilities {
 
             logger.info("Calling Watson Tone Analyzer");
 
-            WatsonOutput watson = watsonClient.getTone(authorization, input);
+            WatsonOutput watson = dependencyMetrics.time(DependencyMetrics.WATSON, "getTone", () -> watsonClient.getTone(authorization, input));
             sentiment = watson.determineSentiment();
         } catch (Throwable t) {
             logger.warning("Error from Watson, with following input: " + input.toString());
             logException(t);
         }
 
+        return feedbackFor(sentiment);
+    }
+
+    /**
+     * Non-blocking variant of invokeWatson, for the ReactiveAccountService
+     */
+    Uni<Feedback> invokeWatsonAsync(WatsonClient watsonClient, String watsonId, String watsonPwd, WatsonInput input) {
+        String credentials = watsonId + ":" + watsonPwd; //Watson accepts basic auth
+        String authorization = "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes());
+
+        logger.info("Calling Watson Tone Analyzer asynchronously");
+        return dependencyMetrics.time(DependencyMetrics.WATSON, "getTone", watsonClient.getToneAsync(authorization, input))
+                .map(WatsonOutput::determineSentiment)
+                .onFailure().recoverWithItem(t -> {
+                    logger.warning("Error from Watson, with following input: " + input.toString());
+                    logException(t);
+                    return "Unknown";
+                })
+                .map(this::feedbackFor);
+    }
+
+    /**
+     * The free trades we give for feedback depend on its tone
+     */
+    private Feedback feedbackFor(String sentiment) {
         int freeTrades = 1;
         String message = "Thanks for providing feedback.  Have a free trade on us!";
 
@@ -168,38 +338,49 @@ public class AccountUtilities {
             message = "Error communicating with the Watson Tone Analyzer";
         }
 
-        Feedback feedback = new Feedback(message, freeTrades, sentiment);
-        return feedback;
+        return new Feedback(message, freeTrades, sentiment);
     }
 
     /**
-     * Send a JSON message to our notification queue.
+     * Send a JSON message to our notification queue.  The message is handed off to the LoyaltyChangePublisher, which
+     * sends it asynchronously, so this doesn't wait on the broker.  It may still wait briefly for room in the
+     * publisher's queue, unless mayWait is false.
      */
     @WithSpan
-    void invokeJMS(Object json) throws JMSException {
-        if (jmsConnectionFactory != null) {
-            logger.fine("Preparing to send a JMS message.");
-            // try-with-resources will close the context automatically
-            try (JMSContext jmsContext = jmsConnectionFactory.createContext(JMSContext.AUTO_ACKNOWLEDGE)) {
-                Queue queue = jmsContext.createQueue(queueName);
-
-                String contents = json.toString();
-                TextMessage message = jmsContext.createTextMessage(contents);
-
-                logger.info("Sending " + contents + " to " + queue.getQueueName());
-
-                //"mqclient" group needs "put" authority on the queue for next two lines to work
-
-                jmsContext.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT).send(queue, message);
-            } catch (JMSRuntimeException jmsre) {
-                logger.warning("Error creating JMS Context");
-                logException(jmsre);
-                jmsre.printStackTrace();
-                throw new JMSException(jmsre.getLocalizedMessage(), jmsre.getErrorCode(), jmsre);
-            }
-            logger.info("JMS Message sent successfully!"); //exception would have occurred otherwise
+    void invokeJMS(Object json, boolean mayWait) throws JMSException {
+        logger.fine("Handing off JMS message: " + json);
+        boolean queued = mayWait ? loyaltyChangePublisher.publish(json) : loyaltyChangePublisher.publishNow(json);
+        if (!queued) {
+            throw new JMSException("Unable to queue message for " + queueName);
+        }
+    }
+
+    /**
+     * Charges the commission for one trade, using up a free trade instead if one is available
+     */
+    void chargeCommission(Account account) {
+        String owner = account.getOwner();
+        String loyalty = account.getLoyalty();
+
+        double commission = getCommission(loyalty);
+
+        int free = account.getFree();
+        if (free > 0) { //use a free trade if available
+            free--;
+            commission = 0.0;
+
+            logger.info("Using free trade for " + owner);
+            account.setFree(free);
         } else {
-            logger.warning("Unable to inject JMS ConnectionFactory - check your MQ Broker configuration. No JMS message will be sent.");
+            double commissions = account.getCommissions();
+            commissions += commission;
+
+            double balance = account.getBalance();
+            balance -= commission;
+
+            logger.fine("Charging commission of $" + commission + " for " + owner);
+            account.setCommissions(commissions);
+            account.setBalance(balance);
         }
     }
 
@@ -0,0 +1,99 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.virtual.threads.VirtualThreads;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.context.ManagedExecutor;
+import org.eclipse.microprofile.context.ThreadContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Runs the blocking part of an AccountService request (CouchDB, ODM and Watson calls) off the event loop, either on
+ * the Quarkus worker pool (account.threads=worker, the default) or on a new Java 21 virtual thread per request
+ * (account.threads=virtual).  With virtual threads a request waiting on I/O doesn't hold a platform thread, so the
+ * number of requests in flight is no longer capped by quarkus.thread-pool.max-threads.
+ * <p>
+ * Request context (the JWT, OpenTelemetry span, etc.) is propagated to the task either way.
+ */
+@ApplicationScoped
+public class BlockingExecutor {
+    private static final Logger logger = Logger.getLogger(BlockingExecutor.class.getName());
+    static final String WORKER = "worker";
+    static final String VIRTUAL = "virtual";
+
+    @ConfigProperty(name = "account.threads", defaultValue = WORKER)
+    String mode;
+
+    @Inject
+    ManagedExecutor workerPool;
+
+    @Inject
+    @VirtualThreads
+    ExecutorService virtualThreads;
+
+    @Inject
+    ThreadContext threadContext;
+
+    @Inject
+    MeterRegistry registry;
+
+    private boolean useVirtualThreads;
+    private Timer queued;
+
+    @PostConstruct
+    void init() {
+        useVirtualThreads = VIRTUAL.equalsIgnoreCase(mode);
+        if (!useVirtualThreads && !WORKER.equalsIgnoreCase(mode)) {
+            logger.warning("Unknown value for account.threads: " + mode + ". Using the worker pool.");
+        }
+        // time from submission until the task starts running, which grows when the worker pool is exhausted
+        queued = Timer.builder("account.executor.queued").tag("threads", useVirtualThreads ? VIRTUAL : WORKER).register(registry);
+        logger.info("Blocking account operations will run on " + (useVirtualThreads ? "virtual threads" : "the worker pool"));
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    /**
+     * Captures the caller's request context for a task that may be submitted later, from another request's thread
+     */
+    public <T> Supplier<T> contextual(Supplier<T> task) {
+        return threadContext.contextualSupplier(task);
+    }
+
+    public <T> CompletionStage<T> submit(Supplier<T> task) {
+        long submitted = System.nanoTime();
+        Supplier<T> timed = () -> {
+            queued.record(System.nanoTime() - submitted, TimeUnit.NANOSECONDS);
+            return task.get();
+        };
+        if (useVirtualThreads) return CompletableFuture.supplyAsync(threadContext.contextualSupplier(timed), virtualThreads);
+        return workerPool.supplyAsync(timed);
+    }
+}
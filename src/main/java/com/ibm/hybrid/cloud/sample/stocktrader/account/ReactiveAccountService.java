@@ -0,0 +1,180 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.client.ODMClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.client.WatsonClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.ReactiveAccountRepository;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Feedback;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonInput;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.ledger.CommissionLedger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.smallrye.common.annotation.NonBlocking;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking variants of the AccountService endpoints that are on the trading path.  They behave the same, but
+ * run on the event loop: CouchDB is reached through the ReactiveAccountRepository, ODM and Watson through the Uni
+ * methods of their REST clients, and loyalty changes go to the account outbox, or to the LoyaltyChangePublisher
+ * queue without waiting for room in it (a full queue drops the change, as it would after the offer timeout).  No worker thread is held while waiting on any of them, so a pod can have
+ * far more requests in flight than the worker pool has threads.
+ * <p>
+ * Updates aren't serialized per account as they are by the AccountUpdateSerializer (that would mean blocking); they
+ * rely on the conditional save alone, re-reading and retrying on a conflict up to account.update.max-attempts times.
+ */
+@Path("/reactive/account")
+@ApplicationScoped
+@NonBlocking
+public class ReactiveAccountService {
+    private static final Logger logger = Logger.getLogger(ReactiveAccountService.class.getName());
+
+    private static final double DONT_RECALCULATE = -1.0;
+
+    @Inject
+    JsonWebToken jwt;
+    @ConfigProperty(name = "watson.id", defaultValue = "apikey")
+    String watsonId;
+    @ConfigProperty(name = "watson.pwd")
+    String watsonPwd; //if using an API Key, it goes here
+    @ConfigProperty(name = "account.update.max-attempts", defaultValue = "3")
+    int maxUpdateAttempts;
+    @Inject
+    private AccountUtilities utilities;
+    @RestClient
+    private ODMClient odmClient;
+    @RestClient
+    private WatsonClient watsonClient;
+    @Inject
+    private ReactiveAccountRepository repository;
+    @Inject
+    private CommissionLedger ledger;
+    @Inject
+    private MeterRegistry registry;
+
+    @GET
+    @Path("/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed({"StockTrader", "StockViewer"})
+    public Uni<Account> getAccount(@PathParam("id") String id, @QueryParam("total") double total) {
+        logger.fine("Entering reactive getAccount for id " + id);
+        String user = jwt.getName();
+        return readModifyWrite(id, account -> {
+            String oldLoyalty = account.getLoyalty();
+            return recalculate(account, total, user).chain(recalculated -> sameLevel(oldLoyalty, recalculated.getLoyalty())
+                    ? Uni.createFrom().item(recalculated) //don't rev the doc if nothing's changed
+                    : repository.save(recalculated));
+        }).map(ledger::overlay);
+    }
+
+    @PUT
+    @Path("/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed({"StockTrader"})
+    public Uni<Account> updateAccount(@PathParam("id") String id, @QueryParam("total") double total) {
+        logger.fine("Entering reactive updateAccount for id " + id);
+        String user = jwt.getName();
+        return readModifyWrite(id, account -> recalculate(account, total, user)
+                .chain(recalculated -> {
+                    utilities.chargeCommission(recalculated);
+                    return repository.save(recalculated);
+                })).map(ledger::overlay);
+    }
+
+    @POST
+    @Path("/{id}/feedback")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @RolesAllowed({"StockTrader"})
+    public Uni<Feedback> submitFeedback(@PathParam("id") String id, WatsonInput input) {
+        logger.fine("Entering reactive submitFeedback for id " + id);
+        return repository.findById(id).chain(found -> {
+            if (found.isEmpty()) {
+                logger.warning("Account not found for " + id + " in submitFeedback");
+                return Uni.createFrom().nullItem();
+            }
+            // ask Watson once, then apply the result with as many attempts as the save needs
+            return utilities.invokeWatsonAsync(watsonClient, watsonId, watsonPwd, input)
+                    .call(feedback -> readModifyWrite(id, account -> {
+                        account.setFree(account.getFree() + feedback.getFree());
+                        account.setSentiment(feedback.getSentiment());
+                        return repository.save(account);
+                    }));
+        }).onFailure().recoverWithItem(t -> {
+            logger.warning("Failure submitting feedback for " + id);
+            AccountUtilities.logException(t);
+            return null;
+        });
+    }
+
+    /**
+     * Reads the account and applies the change, starting again from a fresh read if the save conflicts with another
+     * update.  Emits null if the account doesn't exist or can't be updated, as the blocking endpoints return.
+     */
+    private Uni<Account> readModifyWrite(String id, Function<Account, Uni<Account>> change) {
+        return Uni.createFrom().deferred(() -> repository.findById(id))
+                .chain(found -> {
+                    if (found.isPresent()) return change.apply(found.get());
+                    logger.warning("Got null in getAccount for " + id + ", rather than expected NoDocumentException");
+                    return Uni.createFrom().<Account>nullItem();
+                })
+                .onFailure(CouchDbClient::isConflict).invoke(t -> {
+                    logger.info("Conflict saving account " + id + ". Retrying with the latest revision.");
+                    registry.counter("account.update.conflicts").increment();
+                })
+                .onFailure(CouchDbClient::isConflict).retry().atMost(Math.max(0, maxUpdateAttempts - 1))
+                .onFailure().recoverWithItem(t -> {
+                    logger.warning("Error updating account " + id);
+                    AccountUtilities.logException(t);
+                    return null;
+                });
+    }
+
+    /**
+     * Recomputes the loyalty level and next commission, unless total is DONT_RECALCULATE.  Any change of level is
+     * recorded, but the caller saves it.
+     */
+    private Uni<Account> recalculate(Account account, double total, String user) {
+        if (total == DONT_RECALCULATE) return Uni.createFrom().item(account);
+
+        String oldLoyalty = account.getLoyalty();
+        return utilities.invokeODMAsync(odmClient, account.getOwner(), total, oldLoyalty).map(loyalty -> {
+            if ((loyalty != null) && !sameLevel(loyalty, oldLoyalty)) {
+                account.setLoyalty(loyalty);
+                utilities.recordLoyaltyChange(account, oldLoyalty, loyalty, user, false); //we're on the event loop, so don't wait for room in the queue
+                account.setNextCommission(account.getFree() > 0 ? 0.0 : utilities.getCommission(loyalty));
+            }
+            return account;
+        });
+    }
+
+    private static boolean sameLevel(String oneLoyalty, String otherLoyalty) {
+        return (oneLoyalty == null) ? (otherLoyalty == null) : oneLoyalty.equalsIgnoreCase(otherLoyalty);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.client;
+
+import io.quarkus.rest.client.reactive.ClientBasicAuth;
+import io.smallrye.mutiny.Uni;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.*;
+import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+
+@Path("/")
+@RegisterRestClient(configKey = "couchdb-client-config")
+@ClientBasicAuth(username = "${jnosql.couchdb.username}", password = "${jnosql.couchdb.password}")
+/** Non-blocking mpRestClient "remote" interface for the CouchDB document API, used by the ReactiveAccountRepository.
+ * Failures arrive as a WebApplicationException carrying CouchDB's status, e.g. 404 for a missing document or 409 for
+ * an out-of-date _rev. */
+public interface CouchDbReactiveClient {
+	@GET
+	@Path("/{db}/{id}")
+	@Produces("application/json")
+	public Uni<JsonObject> getDocument(@PathParam("db") String db, @PathParam("id") String id);
+
+	@PUT
+	@Path("/{db}/{id}")
+	@Consumes("application/json")
+	@Produces("application/json")
+	public Uni<JsonObject> putDocument(@PathParam("db") String db, @PathParam("id") String id, JsonObject document);
+}
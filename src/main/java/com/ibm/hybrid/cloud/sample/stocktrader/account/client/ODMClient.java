@@ -18,18 +18,28 @@
 package com.ibm.hybrid.cloud.sample.stocktrader.account.client;
 
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.ODMLoyaltyRule;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.StreamingJsonProvider;
+import io.smallrye.mutiny.Uni;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
 @Path("/")
 @RegisterRestClient(configKey = "odm-client-config")
+@RegisterProvider(StreamingJsonProvider.class)
 /** mpRestClient "remote" interface for the ODM business rule for determining loyalty level */
 public interface ODMClient {
 	@POST
     @Consumes("application/json")
 	@Produces("application/json")
     public ODMLoyaltyRule getLoyaltyLevel(/*@HeaderParam("Authorization") String basicAuth,*/ ODMLoyaltyRule input);
+
+	/** Non-blocking variant of getLoyaltyLevel, for the ReactiveAccountService */
+	@POST
+	@Consumes("application/json")
+	@Produces("application/json")
+	public Uni<ODMLoyaltyRule> getLoyaltyLevelAsync(ODMLoyaltyRule input);
 }
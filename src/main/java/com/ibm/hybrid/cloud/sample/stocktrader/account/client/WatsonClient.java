@@ -17,15 +17,19 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.client;
 
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.StreamingJsonProvider;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonInput;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonOutput;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.ws.rs.*;
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
 
 
 @Path("/")
 @RegisterRestClient(configKey = "watson-client-config")
+@RegisterProvider(StreamingJsonProvider.class)
 /** mpRestClient "remote" interface for the stock quote microservice */
 public interface WatsonClient {
 	@POST
@@ -33,4 +37,11 @@ public interface WatsonClient {
 	@Consumes("application/json")
 	@Produces("application/json")
     public WatsonOutput getTone(@HeaderParam("Authorization") String basicAuth, WatsonInput input);
+
+	/** Non-blocking variant of getTone, for the ReactiveAccountService */
+	@POST
+	@Path("/")
+	@Consumes("application/json")
+	@Produces("application/json")
+	public Uni<WatsonOutput> getToneAsync(@HeaderParam("Authorization") String basicAuth, WatsonInput input);
 }
@@ -0,0 +1,210 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, in-process read-through cache of Account documents keyed by id.  Entries are evicted once they are older
+ * than account.cache.ttl or when more than account.cache.max-size accounts are held (least recently used first).
+ * Callers always get a copy, so mutating a returned Account never changes what is cached.  Entries carry the
+ * document's _rev, so a stale copy can at worst cause a 409 on save, which AccountService retries with a fresh read.
+ * Each invalidation leaves a tombstone numbered from a counter, and readers take a stamp from the same counter
+ * before going to CouchDB, so a read that started before a write can't put the old revision back once the write
+ * has invalidated it.
+ * While the AccountChangesFeed is keeping the entries up to date it holds a lease on the cache, and entries don't
+ * expire by age until the lease runs out.
+ */
+@ApplicationScoped
+public class AccountCache {
+    private static final Logger logger = Logger.getLogger(AccountCache.class.getName());
+    private static final String CACHE_NAME = "account";
+
+    @ConfigProperty(name = "account.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.cache.max-size", defaultValue = "10000")
+    int maxSize;
+
+    @ConfigProperty(name = "account.cache.ttl", defaultValue = "PT10S")
+    Duration ttl;
+
+    @Inject
+    MeterRegistry registry;
+
+    // while leased, the AccountChangesFeed vouches for every entry until leaseUntil (a System.nanoTime() value)
+    private volatile boolean leased = false;
+    private volatile long leaseUntil;
+
+    // numbers the invalidations; a read stamped before an id's tombstone may have seen a revision older than the write
+    private final AtomicLong sequence = new AtomicLong();
+    // the newest tombstone dropped to keep the tombstones bounded: reads stamped before it can't be checked, so aren't cached
+    private long forgottenBefore = 0;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    // access-ordered, so the eldest entry is always the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            boolean evict = size() > maxSize;
+            if (evict) evictions.increment();
+            return evict;
+        }
+    };
+
+    // insertion-ordered, so the eldest tombstone is always the oldest invalidation; guarded by entries
+    private final LinkedHashMap<String, Long> tombstones = new LinkedHashMap<>(256) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            boolean forget = size() > maxSize;
+            if (forget) forgottenBefore = Math.max(forgottenBefore, eldest.getValue());
+            return forget;
+        }
+    };
+
+    @PostConstruct
+    void init() {
+        Tags tags = Tags.of("cache", CACHE_NAME);
+        hits = registry.counter("cache.gets", tags.and("result", "hit"));
+        misses = registry.counter("cache.gets", tags.and("result", "miss"));
+        evictions = registry.counter("cache.evictions", tags);
+        registry.gaugeMapSize("cache.size", tags, entries);
+        logger.fine("Account cache enabled: " + enabled + ", max size: " + maxSize + ", ttl: " + ttl);
+    }
+
+    /**
+     * Returns a copy of the cached account, or an empty Optional if it isn't cached (or has expired)
+     */
+    public Optional<Account> get(String id) {
+        if (!enabled || id == null) return Optional.empty();
+
+        Account account = null;
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                long now = System.nanoTime();
+                if ((entry.expiresAt() > now) || (leased && (leaseUntil - now > 0))) {
+                    account = entry.account();
+                } else {
+                    entries.remove(id);
+                    evictions.increment();
+                }
+            }
+        }
+
+        if (account != null) {
+            hits.increment();
+            return Optional.of(new Account(account));
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the stamp to pass to put for a read that is about to start
+     */
+    public long stamp() {
+        return sequence.get();
+    }
+
+    /**
+     * Caches a copy of an account read after every invalidation so far, such as one just read by the caller
+     */
+    public void put(Account account) {
+        put(account, stamp());
+    }
+
+    /**
+     * Caches a copy of the account as read from CouchDB by a read that took the given stamp before it started.  If
+     * the account has been invalidated since then, the read may have raced a write and nothing is cached.  If a newer
+     * revision of the document is already cached, that one is kept, so a slow read can't overwrite the result of a
+     * faster one.
+     */
+    public void put(Account account, long stamp) {
+        if (!enabled || account == null || account.getId() == null) return;
+
+        Entry entry = new Entry(new Account(account), System.nanoTime() + ttl.toNanos());
+        int generation = CouchDbClient.revisionGeneration(account.getRev());
+        synchronized (entries) {
+            Long tombstone = tombstones.get(account.getId());
+            if ((tombstone != null) ? (tombstone > stamp) : (forgottenBefore > stamp)) {
+                logger.fine("Not caching account " + account.getId() + ", which was invalidated while it was being read");
+                return;
+            }
+            Entry existing = entries.get(account.getId());
+            if (existing != null && CouchDbClient.revisionGeneration(existing.account().getRev()) > generation) {
+                logger.fine("Not caching stale revision " + account.getRev() + " of account " + account.getId());
+                return;
+            }
+            entries.put(account.getId(), entry);
+        }
+    }
+
+    /**
+     * Drops the account from the cache, leaving a tombstone that stops reads already in flight caching it again.
+     * Called whenever this service writes or deletes the document.
+     */
+    public void invalidate(String id) {
+        if (id == null) return;
+
+        synchronized (entries) {
+            entries.remove(id);
+            tombstones.remove(id); //so it is re-added as the newest
+            tombstones.put(id, sequence.incrementAndGet());
+        }
+    }
+
+    /**
+     * Stops entries expiring by age until the given System.nanoTime() value.  Called by the AccountChangesFeed each
+     * time it has caught up with every change, so if it stops keeping up the entries start expiring again.
+     */
+    public void renewLease(long until) {
+        leaseUntil = until;
+        leased = true;
+    }
+
+    public void revokeLease() {
+        leased = false;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            tombstones.clear();
+            forgottenBefore = sequence.incrementAndGet(); //reads already in flight may predate anything just cleared
+        }
+    }
+
+    private record Entry(Account account, long expiresAt) {
+    }
+}
@@ -0,0 +1,203 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.model.ChangesResult;
+import com.ibm.cloud.cloudant.v1.model.ChangesResultItem;
+import com.ibm.cloud.cloudant.v1.model.PostChangesOptions;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Follows the CouchDB _changes feed of the account database and applies every change - including those made by other
+ * replicas of this service - to the AccountCache: new revisions replace the cached copy, and deleted accounts are
+ * dropped.  That turns the cache into a local materialized view of the accounts, so reads can be served from it for
+ * longer than account.cache.ttl.
+ * <p>
+ * The feed is read with back-to-back long polls, each resuming from the last sequence of the one before (the
+ * checkpoint is kept in memory, since the view it feeds starts out empty on every start anyway).  Whenever a poll
+ * comes back with nothing left pending, everything committed before it was sent has been applied, so the cache is
+ * leased until that moment plus account.changes.max-lag.  If the feed falls behind or CouchDB can't be reached, the
+ * lease runs out and entries expire by age again.  account.changes.lag reports how far behind the view might be.
+ */
+@ApplicationScoped
+public class AccountChangesFeed {
+    private static final Logger logger = Logger.getLogger(AccountChangesFeed.class.getName());
+    private static final String DESIGN_DOC_PREFIX = "_design/";
+    private static final String NOW = "now";
+    private static final int BAD_REQUEST = 400;
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    @ConfigProperty(name = "account.changes.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.changes.poll-timeout", defaultValue = "PT10S")
+    Duration pollTimeout;
+
+    @ConfigProperty(name = "account.changes.max-lag", defaultValue = "PT30S")
+    Duration maxLag;
+
+    @ConfigProperty(name = "account.changes.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    @Inject
+    AccountCache accountCache;
+
+    @Inject
+    OwnerIndex ownerIndex;
+
+    @Inject
+    MeterRegistry registry;
+
+    private volatile String since = NOW;
+    private volatile long caughtUpAt = System.nanoTime(); //when the last poll that left nothing pending was sent
+    private volatile long pending = 0;
+    private volatile boolean running = false;
+    private Thread follower;
+    private Counter applied;
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) return;
+        if (!couchDbClient.isConfigured()) {
+            logger.warning("Some jnosql.* properties are blank. The account changes feed won't be followed.");
+            return;
+        }
+
+        applied = registry.counter("account.changes.applied");
+        TimeGauge.builder("account.changes.lag", this, TimeUnit.NANOSECONDS, feed -> System.nanoTime() - feed.caughtUpAt)
+                .description("How far behind CouchDB the locally cached accounts might be")
+                .register(registry);
+        Gauge.builder("account.changes.pending", this, feed -> feed.pending)
+                .description("Changes CouchDB reported as not yet read by the last poll")
+                .register(registry);
+
+        running = true;
+        follower = Thread.ofPlatform().name("account-changes-feed").daemon().start(this::follow);
+        logger.info("Following the _changes feed of " + couchDbClient.getDatabaseName() + " (max lag " + maxLag + ")");
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (!running) return;
+        running = false;
+        accountCache.revokeLease();
+        follower.interrupt();
+        try {
+            follower.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getSince() {
+        return since;
+    }
+
+    private void follow() {
+        while (running) {
+            try {
+                poll();
+            } catch (Throwable t) {
+                if (!running) break;
+                logger.warning("Error reading the account _changes feed: " + t.getClass().getName() + ": " + t.getMessage());
+                if ((t instanceof ServiceResponseException sre) && (sre.getStatusCode() == BAD_REQUEST) && !NOW.equals(since)) {
+                    // the checkpoint is no longer valid (the database was recreated, say), so we can't tell what was missed
+                    logger.warning("Restarting the _changes feed from now, and clearing the account cache");
+                    accountCache.revokeLease();
+                    accountCache.clear();
+                    since = NOW;
+                    try {
+                        ownerIndex.reload();
+                    } catch (Throwable reloadFailure) {
+                        logger.warning("Unable to reload the owner index: " + reloadFailure.getMessage());
+                    }
+                }
+                pause();
+            }
+        }
+        logger.fine("Account changes feed stopped");
+    }
+
+    /**
+     * Reads and applies one batch of changes, waiting up to account.changes.poll-timeout for there to be any
+     */
+    void poll() {
+        long sent = System.nanoTime();
+        long stamp = accountCache.stamp();
+        ChangesResult result = dependencyMetrics.time(DependencyMetrics.COUCHDB, "changes", () ->
+                couchDbClient.getService().postChanges(new PostChangesOptions.Builder()
+                        .db(couchDbClient.getDatabaseName())
+                        .feed("longpoll")
+                        .since(since)
+                        .includeDocs(true)
+                        .timeout(pollTimeout.toMillis())
+                        .limit(batchSize)
+                        .build()).execute().getResult());
+
+        int count = 0;
+        for (ChangesResultItem change : result.getResults()) {
+            String id = change.getId();
+            if (id == null || id.startsWith(DESIGN_DOC_PREFIX)) continue;
+
+            if (Boolean.TRUE.equals(change.isDeleted())) {
+                accountCache.invalidate(id);
+                ownerIndex.remove(id);
+            } else if (change.getDoc() != null) {
+                Account account = AccountDocuments.toAccount(change.getDoc());
+                accountCache.put(account, stamp); //not if this service wrote it again while the poll was waiting
+                ownerIndex.put(account.getOwner(), id);
+            }
+            count++;
+        }
+        applied.increment(count);
+
+        if (result.getLastSeq() != null) since = result.getLastSeq();
+        pending = (result.getPending() != null) ? result.getPending() : 0;
+        if (pending == 0) {
+            caughtUpAt = sent;
+            accountCache.renewLease(sent + maxLag.toNanos());
+        }
+        if (count > 0) logger.fine("Applied " + count + " account changes; " + pending + " pending");
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException ie) {
+            // shutting down
+        }
+    }
+}
@@ -17,66 +17,67 @@ package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
 
 import com.ibm.cloud.cloudant.v1.Cloudant;
 import com.ibm.cloud.cloudant.v1.model.*;
-import com.ibm.cloud.sdk.core.security.BasicAuthenticator;
+import com.ibm.cloud.sdk.core.service.exception.NotFoundException;
 import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LoyaltyDistribution;
 import io.quarkus.runtime.StartupEvent;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
-import org.eclipse.microprofile.config.Config;
-import org.eclipse.microprofile.config.ConfigProvider;
+import jakarta.inject.Inject;
 
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
 
 /**
- * This class creates any indexes in CouchDB/Cloudant that are needed by JNoSQL
+ * This class creates any indexes in CouchDB/Cloudant that are needed by JNoSQL, and the views behind the statistics
  */
 @ApplicationScoped
 public class AccountDbStartupBean {
     private static final Logger logger = Logger.getLogger(AccountDbStartupBean.class.getName());
 
-    //For some reason the @ConfigProperty annotation isn't working here. So let's initialize in the onStart() method.
+    public static final String OWNER_INDEX_DDOC = "json-index";
+    public static final String OWNER_INDEX = "getByOwner";
+    public static final String OUTBOX_INDEX_DDOC = "outbox-index";
+    public static final String OUTBOX_INDEX = "pendingOutbox";
+    public static final String STATS_DDOC = "account-stats";
+    public static final String LOYALTY_VIEW = "byLoyalty";
+    public static final String BALANCE_VIEW = "balanceByLoyalty";
+    public static final String COMMISSIONS_VIEW = "commissionsByLoyalty";
+    public static final String FREE_TRADES_VIEW = "freeTradesByLoyalty";
+
+    // map/reduce views over the Account documents, kept in the STATS_DDOC design document.  Each is keyed by loyalty
+    // level, so a grouped query gives the figure per level and an ungrouped one the overall figure.
+    private static final Map<String, DesignDocumentViewsMapReduce> STATS_VIEWS = Map.of(
+            LOYALTY_VIEW, view("null", "_count"),
+            BALANCE_VIEW, view("number(doc.balance)", "_stats"),
+            COMMISSIONS_VIEW, view("number(doc.commissions)", "_sum"),
+            FREE_TRADES_VIEW, view("number(doc.free)", "_sum"));
 
-    // @ConfigProperty(name="jnosql.couchdb.database")
     String databaseName;
-    // @ConfigProperty(name="jnosql.couchdb.password")
-    String password;
-    // @ConfigProperty(name="jnosql.couchdb.username")
-    String username;
-    // @ConfigProperty(name="jnosql.couchdb.host")
-    String host;
-    // @ConfigProperty(name="jnosql.couchdb.port")
-    String port;
 
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    LoyaltyDistribution loyaltyDistribution;
+
+    @Inject
+    OwnerIndex ownerIndex;
 
     void onStart(@Observes StartupEvent ev) {
         logger.fine("Entering onStart");
-        //Gathering the
-        Config config = ConfigProvider.getConfig();
-        databaseName = config.getConfigValue("jnosql.document.database").getValue();
-        password = config.getConfigValue("jnosql.couchdb.password").getValue();
-        username = config.getConfigValue("jnosql.couchdb.username").getValue();
-        host = config.getConfigValue("jnosql.couchdb.host").getValue();
-        port = config.getConfigValue("jnosql.couchdb.port").getValue();
-
-        logger.finest("CouchDB Host: " + host + ", port: " + port);
-        logger.finest("CouchDB User: " + username);
+        databaseName = couchDbClient.getDatabaseName();
         logger.finest("CouchDB Database name: " + databaseName);
 
-        if (host == null || port == null || databaseName == null || username == null || password == null) {
+        if (!couchDbClient.isConfigured()) {
             logger.warning("Some jnosql.* properties are blank. Skipping CouchDB index initialization.");
             return;
         }
 
-        BasicAuthenticator authenticator = new BasicAuthenticator.Builder()
-                .username(username)
-                .password(password)
-                .build();
-
-        Cloudant service = new Cloudant(Cloudant.DEFAULT_SERVICE_NAME, authenticator);
-
-        service.setServiceUrl("http://" + host + ":" + port);
+        Cloudant service = couchDbClient.getService();
 
         // Try to create database if it doesn't exist
         PutDatabaseOptions putDbOptions =
@@ -104,7 +105,7 @@ public class AccountDbStartupBean {
         logger.finest(indexes.toString());
         AtomicBoolean indexExists = new AtomicBoolean(false);
         indexes.getIndexes().forEach(index -> {
-            if (index.getName().equalsIgnoreCase("getByOwner") && !index.getDef().fields().isEmpty()) {
+            if (index.getName().equalsIgnoreCase(OWNER_INDEX) && !index.getDef().fields().isEmpty()) {
                 logger.fine("Index " + index.getName() + " does not exist. Setting boolean to true");
                 indexExists.set(true);
             }
@@ -123,9 +124,9 @@ public class AccountDbStartupBean {
             // Type "json" index fields require an object that maps the name of a field to a sort direction.
             PostIndexOptions indexOptions = new PostIndexOptions.Builder()
                     .db(databaseName)
-                    .ddoc("json-index")
+                    .ddoc(OWNER_INDEX_DDOC)
                     .index(indexDefinition)
-                    .name("getByOwner")
+                    .name(OWNER_INDEX)
                     .type("json")
                     .build();
 
@@ -142,5 +143,82 @@ public class AccountDbStartupBean {
         } else {
             logger.fine("CouchDB Index for accounts by owner already exists. Skipping adding new index.");
         }
+
+        // Partial index that only contains accounts with loyalty change events waiting in their outbox,
+        // so the LoyaltyOutboxRelay can find them without scanning every account
+        boolean outboxIndexExists = indexes.getIndexes().stream().anyMatch(index -> index.getName().equalsIgnoreCase(OUTBOX_INDEX));
+        if (!outboxIndexExists) {
+            System.out.println("Outbox index does not exist. Creating...");
+            IndexDefinition indexDefinition = new IndexDefinition.Builder()
+                    .addFields(new IndexField.Builder().add("outbox", "asc").build())
+                    .partialFilterSelector(Map.of("outbox.0", Map.of("$exists", true)))
+                    .build();
+
+            PostIndexOptions indexOptions = new PostIndexOptions.Builder()
+                    .db(databaseName)
+                    .ddoc(OUTBOX_INDEX_DDOC)
+                    .index(indexDefinition)
+                    .name(OUTBOX_INDEX)
+                    .type("json")
+                    .build();
+
+            IndexResult response = service.postIndex(indexOptions).execute().getResult();
+            logger.finest("Here is the response from CouchDB about outbox index creation");
+            logger.finest(response.toString());
+        } else {
+            logger.fine("CouchDB Index for pending outbox events already exists. Skipping adding new index.");
+        }
+
+        installStatsViews(service);
+        ownerIndex.load();
+        loyaltyDistribution.refresh();
+    }
+
+    /**
+     * Creates the design document holding the statistics views, or updates it if its views aren't the ones above
+     */
+    private void installStatsViews(Cloudant service) {
+        DesignDocument existing = null;
+        try {
+            existing = service.getDesignDocument(new GetDesignDocumentOptions.Builder()
+                    .db(databaseName)
+                    .ddoc(STATS_DDOC)
+                    .build()).execute().getResult();
+        } catch (NotFoundException nfe) {
+            logger.fine("Design document " + STATS_DDOC + " does not exist yet");
+        }
+
+        if ((existing != null) && sameViews(existing.getViews())) {
+            logger.fine("CouchDB statistics views already exist. Skipping adding new views.");
+            return;
+        }
+
+        System.out.println("Statistics views are missing or out of date. Creating...");
+        DesignDocument.Builder designDocument = new DesignDocument.Builder().views(STATS_VIEWS);
+        if (existing != null) designDocument.rev(existing.getRev());
+        DocumentResult response = service.putDesignDocument(new PutDesignDocumentOptions.Builder()
+                .db(databaseName)
+                .ddoc(STATS_DDOC)
+                .designDocument(designDocument.build())
+                .build()).execute().getResult();
+        logger.finest("Here is the response from CouchDB about the statistics views");
+        logger.finest(response.toString());
+    }
+
+    private static DesignDocumentViewsMapReduce view(String value, String reduce) {
+        return new DesignDocumentViewsMapReduce.Builder()
+                .map("function (doc) { function number(value) { return (typeof value === 'number') ? value : 0; } "
+                        + "if (doc.owner) emit(doc.loyalty, " + value + "); }")
+                .reduce(reduce)
+                .build();
+    }
+
+    private static boolean sameViews(Map<String, DesignDocumentViewsMapReduce> views) {
+        if ((views == null) || !views.keySet().equals(STATS_VIEWS.keySet())) return false;
+        for (Map.Entry<String, DesignDocumentViewsMapReduce> view : STATS_VIEWS.entrySet()) {
+            DesignDocumentViewsMapReduce actual = views.get(view.getKey());
+            if (!Objects.equals(actual.getMap(), view.getValue().getMap()) || !Objects.equals(actual.getReduce(), view.getValue().getReduce())) return false;
+        }
+        return true;
     }
 }
@@ -0,0 +1,147 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.model.Document;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import jakarta.json.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts between Account and the raw Cloudant SDK Document (for the bulk requests made through CouchDbClient) or
+ * the JSON-P object used by the ReactiveAccountRepository.
+ * The field names match the ones JNoSQL uses for the Account entity, so documents written either way are the same.
+ */
+public final class AccountDocuments {
+    public static final String OWNER = "owner";
+    public static final String LOYALTY = "loyalty";
+    public static final String BALANCE = "balance";
+    public static final String COMMISSIONS = "commissions";
+    public static final String FREE = "free";
+    public static final String SENTIMENT = "sentiment";
+    public static final String NEXT_COMMISSION = "nextCommission";
+    public static final String OPERATION = "operation";
+    public static final String OUTBOX = "outbox";
+    public static final String LEDGER_APPLIED = "ledgerApplied";
+    private static final String ID = "_id";
+    private static final String REV = "_rev";
+    private static final String ENTITY = "@entity"; //JNoSQL's CouchDB driver tags each document with its entity name
+    private static final String ACCOUNT_ENTITY = "Account";
+
+    private AccountDocuments() {
+    }
+
+    public static Account toAccount(Document document) {
+        Account account = new Account(document.getId(), string(document.get(OWNER)), string(document.get(LOYALTY)),
+                number(document.get(BALANCE)), number(document.get(COMMISSIONS)), (int) number(document.get(FREE)),
+                string(document.get(SENTIMENT)), number(document.get(NEXT_COMMISSION)));
+        account.setRev(document.getRev());
+        account.setOperation(string(document.get(OPERATION)));
+        if (document.get(OUTBOX) != null) account.setOutbox(stringList(document.get(OUTBOX)));
+        if (document.get(LEDGER_APPLIED) != null) account.setLedgerApplied(stringList(document.get(LEDGER_APPLIED)));
+        account.setPersistedLoyalty(account.getLoyalty());
+        return account;
+    }
+
+    /**
+     * Writes the account's fields into an existing document, leaving any fields this class doesn't know about (and
+     * the _rev, which makes the write conditional) as they were read
+     */
+    public static void copyInto(Account account, Document document) {
+        document.put(OWNER, account.getOwner());
+        document.put(LOYALTY, account.getLoyalty());
+        document.put(BALANCE, account.getBalance());
+        document.put(COMMISSIONS, account.getCommissions());
+        document.put(FREE, account.getFree());
+        document.put(SENTIMENT, account.getSentiment());
+        document.put(NEXT_COMMISSION, account.getNextCommission());
+        document.put(OPERATION, account.getOperation());
+        document.put(OUTBOX, (account.getOutbox() != null) ? account.getOutbox() : new ArrayList<String>());
+        if (account.getLedgerApplied() != null) document.put(LEDGER_APPLIED, account.getLedgerApplied());
+    }
+
+    /**
+     * Returns a new document for an account that hasn't been written yet, tagged the way JNoSQL tags its own
+     */
+    public static Document newDocument(Account account) {
+        Document document = new Document();
+        document.setId(account.getId());
+        document.put(ENTITY, ACCOUNT_ENTITY); //so JNoSQL queries still find it
+        copyInto(account, document);
+        return document;
+    }
+
+    public static Account toAccount(JsonObject json) {
+        Account account = new Account(json.getString(ID, null), json.getString(OWNER, null), json.getString(LOYALTY, null),
+                number(json.get(BALANCE)), number(json.get(COMMISSIONS)), (int) number(json.get(FREE)),
+                json.getString(SENTIMENT, null), number(json.get(NEXT_COMMISSION)));
+        account.setRev(json.getString(REV, null));
+        account.setOperation(json.getString(OPERATION, null));
+        if (json.get(OUTBOX) instanceof JsonArray outbox) account.setOutbox(stringList(outbox));
+        if (json.get(LEDGER_APPLIED) instanceof JsonArray applied) account.setLedgerApplied(stringList(applied));
+        account.setPersistedLoyalty(account.getLoyalty());
+        return account;
+    }
+
+    /**
+     * Returns the JSON for the account, starting from the document as it was read (if there is one) so that fields
+     * this class doesn't know about are kept
+     */
+    public static JsonObject toJson(Account account, JsonObject original) {
+        JsonObjectBuilder json = (original != null) ? Json.createObjectBuilder(original) : Json.createObjectBuilder();
+        if ((original == null) || !original.containsKey(ENTITY)) json.add(ENTITY, ACCOUNT_ENTITY); //so JNoSQL queries still find it
+        json.add(ID, account.getId());
+        if (account.getRev() != null) json.add(REV, account.getRev());
+        add(json, OWNER, account.getOwner());
+        add(json, LOYALTY, account.getLoyalty());
+        json.add(BALANCE, account.getBalance());
+        json.add(COMMISSIONS, account.getCommissions());
+        json.add(FREE, account.getFree());
+        add(json, SENTIMENT, account.getSentiment());
+        json.add(NEXT_COMMISSION, account.getNextCommission());
+        add(json, OPERATION, account.getOperation());
+        json.add(OUTBOX, Json.createArrayBuilder((account.getOutbox() != null) ? account.getOutbox() : List.of()));
+        if (account.getLedgerApplied() != null) json.add(LEDGER_APPLIED, Json.createArrayBuilder(account.getLedgerApplied()));
+        return json.build();
+    }
+
+    private static void add(JsonObjectBuilder json, String name, String value) {
+        if (value != null) json.add(name, value);
+        else json.addNull(name);
+    }
+
+    public static double number(Object value) {
+        if (value instanceof JsonNumber number) return number.doubleValue();
+        return (value instanceof Number number) ? number.doubleValue() : 0.0;
+    }
+
+    public static String string(Object value) {
+        return (value != null) ? value.toString() : null;
+    }
+
+    public static List<String> stringList(Object value) {
+        if (!(value instanceof List<?> list)) return new ArrayList<>();
+
+        List<String> result = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (item instanceof JsonString string) result.add(string.getString());
+            else if (item != null) result.add(item.toString());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.model.DocsResultRow;
+import com.ibm.cloud.cloudant.v1.model.PostAllDocsOptions;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Walks every Account in the database in _id order, a page of account.export.page-size documents at a time.
+ * Each page starts at the last _id of the one before (keyset paging) rather than at an offset, so every page costs
+ * the same no matter how deep into the database it is, and only one page is ever held in memory.
+ */
+@ApplicationScoped
+public class AccountExporter {
+    private static final Logger logger = Logger.getLogger(AccountExporter.class.getName());
+    private static final String DESIGN_DOC_PREFIX = "_design/";
+
+    /**
+     * Receives each exported account, and is told when a page is complete (a good point to flush a response)
+     */
+    public interface Sink {
+        void accept(Account account) throws IOException;
+
+        default void endOfPage() throws IOException {
+        }
+    }
+
+    @ConfigProperty(name = "account.export.page-size", defaultValue = "500")
+    int pageSize;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    /**
+     * Passes every account to the sink, and returns how many there were
+     */
+    public long export(Sink sink) throws IOException {
+        if (!couchDbClient.isConfigured()) throw new IllegalStateException("Some jnosql.* properties are blank");
+
+        long count = 0;
+        String lastId = null;
+        while (true) {
+            PostAllDocsOptions.Builder builder = new PostAllDocsOptions.Builder()
+                    .db(couchDbClient.getDatabaseName())
+                    .includeDocs(true)
+                    .limit(pageSize + 1L); //startKey is inclusive, so ask for one extra to make up for the repeat
+            if (lastId != null) builder.startKey(lastId);
+            List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "export", () ->
+                    couchDbClient.getService().postAllDocs(builder.build()).execute().getResult().getRows());
+
+            int fresh = 0;
+            for (DocsResultRow row : rows) {
+                if (row.getId().equals(lastId)) continue;
+                fresh++;
+                if (row.getId().startsWith(DESIGN_DOC_PREFIX) || (row.getDoc() == null)) continue;
+                sink.accept(AccountDocuments.toAccount(row.getDoc()));
+                count++;
+            }
+            sink.endOfPage();
+
+            if (rows.isEmpty() || (fresh == 0)) break;
+            lastId = rows.get(rows.size() - 1).getId();
+            if (rows.size() < pageSize + 1) break; //that was the last page
+        }
+        logger.fine("Exported " + count + " accounts");
+        return count;
+    }
+}
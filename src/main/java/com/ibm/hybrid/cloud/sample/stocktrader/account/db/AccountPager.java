@@ -0,0 +1,80 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.model.Document;
+import com.ibm.cloud.cloudant.v1.model.FindResult;
+import com.ibm.cloud.cloudant.v1.model.PostFindOptions;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountPage;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cursor-based paging of accounts in owner order.  Rather than skipping over the earlier pages as the offset-based
+ * AccountRepository queries do (which makes Mango read and discard them all), each page carries the Mango bookmark
+ * of where it ended, and the next request resumes from there via the getByOwner index.  So page 5,000 costs the same
+ * as page 1.
+ */
+@ApplicationScoped
+public class AccountPager {
+    private static final String OWNER = "owner";
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    /**
+     * Returns the page of up to pageSize accounts after the one that returned pageToken (or the first page, if
+     * pageToken is null).  If owners isn't empty, only their accounts are included; a token is only valid with the
+     * same owners it was returned for.
+     */
+    public AccountPage findPage(List<String> owners, int pageSize, String pageToken) {
+        if (!couchDbClient.isConfigured()) throw new IllegalStateException("Some jnosql.* properties are blank");
+
+        // $gt null matches every document with an owner, which is what the index holds
+        Map<String, Object> selector = ((owners == null) || owners.isEmpty())
+                ? Map.of(OWNER, Collections.singletonMap("$gt", null))
+                : Map.of(OWNER, Map.of("$in", owners));
+
+        PostFindOptions.Builder builder = new PostFindOptions.Builder()
+                .db(couchDbClient.getDatabaseName())
+                .selector(selector)
+                .sort(List.of(Map.of(OWNER, "asc")))
+                .useIndex(List.of(AccountDbStartupBean.OWNER_INDEX_DDOC, AccountDbStartupBean.OWNER_INDEX))
+                .limit(pageSize);
+        if ((pageToken != null) && !pageToken.isBlank()) builder.bookmark(pageToken);
+
+        FindResult result = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findPage", () ->
+                couchDbClient.getService().postFind(builder.build()).execute().getResult());
+        List<Document> documents = (result.getDocs() != null) ? result.getDocs() : List.of();
+
+        List<Account> accounts = new ArrayList<>(documents.size());
+        for (Document document : documents) accounts.add(AccountDocuments.toAccount(document));
+
+        // a short page means there's nothing after it
+        String next = (documents.size() < pageSize) ? null : result.getBookmark();
+        return new AccountPage(accounts, next);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.model.PostViewOptions;
+import com.ibm.cloud.cloudant.v1.model.ViewResultRow;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountStats;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyStats;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * Answers aggregate questions about the accounts (balances, commissions collected and free trades owed, per loyalty
+ * level) from the map/reduce views AccountDbStartupBean installs.  CouchDB keeps the reductions in the views' B-trees
+ * up to date as documents change, so each figure is a single grouped view query rather than a read of every account.
+ * Commissions still waiting in the CommissionLedger aren't included until they are flushed to the account documents.
+ */
+@ApplicationScoped
+public class AccountStatistics {
+    private static final Logger logger = Logger.getLogger(AccountStatistics.class.getName());
+    private static final String UNKNOWN = "Unknown";
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    public AccountStats getStats() {
+        if (!couchDbClient.isConfigured()) throw new IllegalStateException("Some jnosql.* properties are blank");
+
+        Map<String, LoyaltyStats> byLoyalty = new TreeMap<>();
+        for (ViewResultRow row : query(AccountDbStartupBean.BALANCE_VIEW)) {
+            LoyaltyStats stats = stats(byLoyalty, row);
+            if (row.getValue() instanceof Map<?, ?> balance) { //_stats gives the sum, count, min, max and sum of squares
+                stats.setAccounts((long) AccountDocuments.number(balance.get("count")));
+                stats.setBalance(AccountDocuments.number(balance.get("sum")));
+                stats.setMinBalance(AccountDocuments.number(balance.get("min")));
+                stats.setMaxBalance(AccountDocuments.number(balance.get("max")));
+            }
+        }
+        for (ViewResultRow row : query(AccountDbStartupBean.COMMISSIONS_VIEW)) {
+            stats(byLoyalty, row).setCommissions(AccountDocuments.number(row.getValue()));
+        }
+        for (ViewResultRow row : query(AccountDbStartupBean.FREE_TRADES_VIEW)) {
+            stats(byLoyalty, row).setFreeTrades((long) AccountDocuments.number(row.getValue()));
+        }
+
+        LoyaltyStats total = new LoyaltyStats();
+        byLoyalty.values().forEach(total::add);
+        logger.fine("Statistics for " + total.getAccounts() + " accounts across " + byLoyalty.size() + " loyalty levels");
+        return new AccountStats(total, byLoyalty);
+    }
+
+    private List<ViewResultRow> query(String view) {
+        PostViewOptions options = new PostViewOptions.Builder()
+                .db(couchDbClient.getDatabaseName())
+                .ddoc(AccountDbStartupBean.STATS_DDOC)
+                .view(view)
+                .group(true)
+                .build();
+        return couchDbClient.getService().postView(options).execute().getResult().getRows();
+    }
+
+    private static LoyaltyStats stats(Map<String, LoyaltyStats> byLoyalty, ViewResultRow row) {
+        String loyalty = (row.getKey() != null) ? row.getKey().toString() : UNKNOWN;
+        return byLoyalty.computeIfAbsent(loyalty, level -> new LoyaltyStats());
+    }
+}
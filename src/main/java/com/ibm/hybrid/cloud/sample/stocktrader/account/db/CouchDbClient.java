@@ -0,0 +1,115 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.Cloudant;
+import com.ibm.cloud.sdk.core.security.BasicAuthenticator;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.WebApplicationException;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.util.logging.Logger;
+
+/**
+ * Shared Cloudant SDK client for the operations JNoSQL doesn't cover (indexes, views, bulk and _changes requests).
+ * It talks to the same CouchDB/Cloudant database as the AccountRepository, using the jnosql.* properties.
+ */
+@ApplicationScoped
+public class CouchDbClient {
+    private static final Logger logger = Logger.getLogger(CouchDbClient.class.getName());
+    private static final int CONFLICT = 409;
+
+    //As in AccountDbStartupBean, these are read via ConfigProvider rather than @ConfigProperty
+    private String databaseName;
+    private String password;
+    private String username;
+    private String host;
+    private String port;
+
+    private Cloudant service;
+
+    /**
+     * Returns false if any of the jnosql.* connection properties are blank
+     */
+    public boolean isConfigured() {
+        loadConfig();
+        return host != null && port != null && databaseName != null && username != null && password != null;
+    }
+
+    public String getDatabaseName() {
+        loadConfig();
+        return databaseName;
+    }
+
+    /**
+     * Returns the Cloudant client, creating it on first use.  Callers should check isConfigured() first.
+     */
+    public synchronized Cloudant getService() {
+        if (service == null) {
+            if (!isConfigured()) throw new IllegalStateException("Some jnosql.* properties are blank");
+
+            BasicAuthenticator authenticator = new BasicAuthenticator.Builder()
+                    .username(username)
+                    .password(password)
+                    .build();
+
+            service = new Cloudant(Cloudant.DEFAULT_SERVICE_NAME, authenticator);
+            service.setServiceUrl("http://" + host + ":" + port);
+            logger.fine("Created Cloudant client for http://" + host + ":" + port + "/" + databaseName);
+        }
+        return service;
+    }
+
+    /**
+     * Returns true if the failure was CouchDB refusing a write because the document's _rev is out of date (HTTP 409),
+     * whether it came from the Cloudant SDK or the CouchDbReactiveClient.  Only the status code is trusted: JNoSQL's
+     * CouchDB driver doesn't expose one, which is why conditional writes go through one of those two clients.
+     */
+    public static boolean isConflict(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ServiceResponseException sre && sre.getStatusCode() == CONFLICT) return true;
+            if (cause instanceof WebApplicationException wae && wae.getResponse() != null && wae.getResponse().getStatus() == CONFLICT) return true;
+            if (cause.getCause() == cause) break;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the generation number at the start of a CouchDB _rev (the 3 in "3-917fa23..."), or 0 if there isn't one
+     */
+    public static int revisionGeneration(String rev) {
+        if (rev == null) return 0;
+        int dash = rev.indexOf('-');
+        try {
+            return Integer.parseInt(dash > 0 ? rev.substring(0, dash) : rev);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+    private synchronized void loadConfig() {
+        if (databaseName != null) return;
+
+        Config config = ConfigProvider.getConfig();
+        databaseName = config.getConfigValue("jnosql.document.database").getValue();
+        password = config.getConfigValue("jnosql.couchdb.password").getValue();
+        username = config.getConfigValue("jnosql.couchdb.username").getValue();
+        host = config.getConfigValue("jnosql.couchdb.host").getValue();
+        port = config.getConfigValue("jnosql.couchdb.port").getValue();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.cloud.cloudant.v1.model.Document;
+import com.ibm.cloud.cloudant.v1.model.FindResult;
+import com.ibm.cloud.cloudant.v1.model.PostFindOptions;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * In-process index from account owner to document id, so createAccount only has to query CouchDB for owners that
+ * already have an account.  It is loaded at startup from the getByOwner index, and kept up to date by this service's
+ * own creates and deletes and, when it is enabled, by the AccountChangesFeed.  Without the changes feed it misses
+ * accounts deleted by anything else, so a hit is only a hint: createAccount reads the document before refusing.
+ * <p>
+ * New accounts get an id derived from the owner (see idFor), so CouchDB itself refuses a second account for the same
+ * owner with a 409, even if two replicas race to create it.  This index is what catches owners whose accounts were
+ * created before that, with random ids.
+ */
+@ApplicationScoped
+public class OwnerIndex {
+    private static final Logger logger = Logger.getLogger(OwnerIndex.class.getName());
+    private static final String OWNER = "owner";
+    private static final String ID = "_id";
+    private static final int PAGE_SIZE = 1000;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, String> idsByOwner = new ConcurrentHashMap<>();
+    private final Map<String, String> ownersById = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        registry.gaugeMapSize("account.owner.index.size", Tags.empty(), idsByOwner);
+    }
+
+    /**
+     * The document id for a new account belonging to this owner: a name-based (version 3) UUID of the owner
+     */
+    public static String idFor(String owner) {
+        return UUID.nameUUIDFromBytes(owner.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    public boolean contains(String owner) {
+        return (owner != null) && idsByOwner.containsKey(owner);
+    }
+
+    /**
+     * The document id indexed for this owner, or null if there isn't one
+     */
+    public String idOf(String owner) {
+        return (owner != null) ? idsByOwner.get(owner) : null;
+    }
+
+    public void put(String owner, String id) {
+        if ((owner == null) || (id == null)) return;
+        String previous = ownersById.put(id, owner);
+        if ((previous != null) && !previous.equals(owner)) idsByOwner.remove(previous, id);
+        idsByOwner.put(owner, id);
+    }
+
+    public void remove(String id) {
+        if (id == null) return;
+        String owner = ownersById.remove(id);
+        if (owner != null) idsByOwner.remove(owner, id);
+    }
+
+    /**
+     * Starts again from what's in the database, for when changes may have been missed
+     */
+    public void reload() {
+        idsByOwner.clear();
+        ownersById.clear();
+        load();
+    }
+
+    /**
+     * Reads the owner and id of every account, a page at a time, reading just those two fields from the getByOwner index
+     */
+    public void load() {
+        if (!couchDbClient.isConfigured()) return;
+
+        String bookmark = null;
+        int count = 0;
+        while (true) {
+            PostFindOptions.Builder builder = new PostFindOptions.Builder()
+                    .db(couchDbClient.getDatabaseName())
+                    .selector(Map.of(OWNER, Collections.singletonMap("$gt", null)))
+                    .fields(List.of(ID, OWNER))
+                    .useIndex(List.of(AccountDbStartupBean.OWNER_INDEX_DDOC, AccountDbStartupBean.OWNER_INDEX))
+                    .limit(PAGE_SIZE);
+            if (bookmark != null) builder.bookmark(bookmark);
+
+            FindResult result = dependencyMetrics.time(DependencyMetrics.COUCHDB, "ownerIndex", () ->
+                    couchDbClient.getService().postFind(builder.build()).execute().getResult());
+            List<Document> documents = (result.getDocs() != null) ? result.getDocs() : List.of();
+            for (Document document : documents) put(AccountDocuments.string(document.get(OWNER)), document.getId());
+            count += documents.size();
+
+            if (documents.size() < PAGE_SIZE) break;
+            bookmark = result.getBookmark();
+        }
+        logger.info("Loaded " + count + " account owners into the owner index");
+    }
+}
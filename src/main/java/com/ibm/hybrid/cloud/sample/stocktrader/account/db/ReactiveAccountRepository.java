@@ -0,0 +1,96 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.db;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.client.CouchDbReactiveClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LoyaltyDistribution;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.json.JsonObject;
+import jakarta.ws.rs.WebApplicationException;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+
+import java.util.Optional;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking counterpart of AccountRepository's findById and save, going straight to the CouchDB document API over
+ * the Vert.x HTTP client.  Reads go through the same AccountCache.  Saves are conditional on the _rev, failing with a
+ * 409 if the document changed since it was read, like AccountService's updates through the Cloudant SDK (which it
+ * uses rather than JNoSQL's save, since that doesn't expose the status), so the two can be used side by side.
+ */
+@ApplicationScoped
+public class ReactiveAccountRepository {
+    private static final Logger logger = Logger.getLogger(ReactiveAccountRepository.class.getName());
+    private static final int NOT_FOUND = 404;
+
+    @Inject
+    @RestClient
+    CouchDbReactiveClient client;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    AccountCache accountCache;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    @Inject
+    LoyaltyDistribution loyaltyDistribution;
+
+    public Uni<Optional<Account>> findById(String id) {
+        Optional<Account> cached = accountCache.get(id);
+        if (cached.isPresent()) return Uni.createFrom().item(cached);
+
+        long stamp = accountCache.stamp();
+
+        return dependencyMetrics.time(DependencyMetrics.COUCHDB, "findById", client.getDocument(couchDbClient.getDatabaseName(), id))
+                .map(json -> {
+                    Account account = AccountDocuments.toAccount(json);
+                    accountCache.put(account, stamp);
+                    return Optional.of(account);
+                })
+                .onFailure(t -> status(t) == NOT_FOUND).recoverWithItem(Optional.empty());
+    }
+
+    /**
+     * Saves the account, failing with a 409 WebApplicationException if the document has changed since it was read
+     * (see CouchDbClient.isConflict).  Returns the account with its new _rev.
+     */
+    public Uni<Account> save(Account account) {
+        String id = account.getId();
+        boolean created = (account.getRev() == null);
+        JsonObject json = AccountDocuments.toJson(account, null);
+        return dependencyMetrics.time(DependencyMetrics.COUCHDB, "save", client.putDocument(couchDbClient.getDatabaseName(), id, json))
+                .map(result -> {
+                    Account saved = new Account(account);
+                    saved.setRev(result.getString("rev", null));
+                    loyaltyDistribution.saved(saved, created);
+                    logger.fine("Saved account " + id + " as revision " + saved.getRev());
+                    return saved;
+                })
+                .eventually(() -> accountCache.invalidate(id));
+    }
+
+    private static int status(Throwable t) {
+        return (t instanceof WebApplicationException wae && wae.getResponse() != null) ? wae.getResponse().getStatus() : 0;
+    }
+}
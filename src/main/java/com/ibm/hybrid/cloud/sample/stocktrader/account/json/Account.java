@@ -17,16 +17,21 @@
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
 
+import jakarta.json.bind.annotation.JsonbTransient;
 import jakarta.nosql.Column;
 import jakarta.nosql.Entity;
 import jakarta.nosql.Id;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 
 /** JSON-B POJO class representing an Account JSON object */
 @Entity
 public class Account {
     @Id() private String id;
+    @Column("_rev") private String rev; //CouchDB revision, which makes saves conditional on nobody else having changed the document
     @Column private String owner;
     @Column private String loyalty;
     @Column private double balance;
@@ -35,6 +40,9 @@ public class Account {
     @Column private String sentiment;
     @Column private double nextCommission;
     @Column private String operation;
+    @Column private List<String> outbox; //LoyaltyChange events not yet sent to JMS, see LoyaltyOutboxRelay
+    @Column private List<String> ledgerApplied; //ids of the CommissionLedger entries folded in by the last flush
+    private String persistedLoyalty; //loyalty level of the document as last read or written, see LoyaltyDistribution
 
     public Account() { //default constructor
         setId(UUID.randomUUID().toString());
@@ -75,6 +83,16 @@ public class Account {
         setNextCommission(initialNextCommission);
     }
 
+    public Account(Account other) { //copy constructor
+        this(other.getId(), other.getOwner(), other.getLoyalty(), other.getBalance(), other.getCommissions(),
+                other.getFree(), other.getSentiment(), other.getNextCommission());
+        setRev(other.getRev());
+        setOperation(other.getOperation());
+        if (other.getOutbox() != null) setOutbox(new ArrayList<>(other.getOutbox()));
+        if (other.getLedgerApplied() != null) setLedgerApplied(new ArrayList<>(other.getLedgerApplied()));
+        setPersistedLoyalty(other.getPersistedLoyalty());
+    }
+
     public String getId() {
         return id;
     }
@@ -83,6 +101,16 @@ public class Account {
         id = newId;
     }
 
+    @JsonbTransient
+    public String getRev() {
+        return rev;
+    }
+
+    @JsonbTransient
+    public void setRev(String newRev) {
+        rev = newRev;
+    }
+
     public String getOwner() {
         return owner;
     }
@@ -147,11 +175,67 @@ public class Account {
         operation = newOperation;
     }
 
+    @JsonbTransient
+    public List<String> getOutbox() {
+        return outbox;
+    }
+
+    @JsonbTransient
+    public void setOutbox(List<String> newOutbox) {
+        outbox = newOutbox;
+    }
+
+    public void addToOutbox(String event) {
+        if (outbox == null) outbox = new ArrayList<>();
+        outbox.add(event);
+    }
+
+    @JsonbTransient
+    public List<String> getLedgerApplied() {
+        return ledgerApplied;
+    }
+
+    @JsonbTransient
+    public void setLedgerApplied(List<String> newLedgerApplied) {
+        ledgerApplied = newLedgerApplied;
+    }
+
+    @JsonbTransient
+    public String getPersistedLoyalty() {
+        return persistedLoyalty;
+    }
+
+    @JsonbTransient
+    public void setPersistedLoyalty(String newPersistedLoyalty) {
+        persistedLoyalty = newPersistedLoyalty;
+    }
+
+    /**
+     * Compares the fields in toString, field by field rather than by building both strings.  The rev, outbox,
+     * ledgerApplied and persistedLoyalty are CouchDB bookkeeping rather than part of the account, so are left out.
+     */
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof Account)) isEqual = toString().equals(obj.toString());
-        return isEqual;
-   }
+        if (obj == this) return true;
+        if (!(obj instanceof Account other)) return false;
+        return Objects.equals(id, other.id) && Objects.equals(owner, other.owner) &&
+                Objects.equals(loyalty, other.loyalty) && (Double.compare(balance, other.balance) == 0) &&
+                (Double.compare(commissions, other.commissions) == 0) && (free == other.free) &&
+                (Double.compare(nextCommission, other.nextCommission) == 0) &&
+                Objects.equals(sentiment, other.sentiment) && Objects.equals(operation, other.operation);
+    }
+
+    public int hashCode() {
+        int hash = Objects.hashCode(id);
+        hash = 31 * hash + Objects.hashCode(owner);
+        hash = 31 * hash + Objects.hashCode(loyalty);
+        hash = 31 * hash + Double.hashCode(balance);
+        hash = 31 * hash + Double.hashCode(commissions);
+        hash = 31 * hash + free;
+        hash = 31 * hash + Double.hashCode(nextCommission);
+        hash = 31 * hash + Objects.hashCode(sentiment);
+        hash = 31 * hash + Objects.hashCode(operation);
+        return hash;
+    }
 
     public String toString() {
         return "{\"_id\": \""+ id +"\", \"owner\": \""+owner+"\", \"loyalty\": \""+loyalty
@@ -0,0 +1,74 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+import java.util.List;
+import java.util.Map;
+
+/** JSON-B POJO class representing the body of a POST /account/batch request: the account ids to get, and optionally
+ * the portfolio total to recompute the loyalty level of each with */
+public class AccountBatch {
+    private List<String> ids;
+    private Map<String, Double> totals;
+
+
+    public AccountBatch() { //default constructor
+    }
+
+    public AccountBatch(List<String> initialIds) {
+        setIds(initialIds);
+    }
+
+    public AccountBatch(List<String> initialIds, Map<String, Double> initialTotals) {
+        setIds(initialIds);
+        setTotals(initialTotals);
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> newIds) {
+        ids = newIds;
+    }
+
+    public Map<String, Double> getTotals() {
+        return totals;
+    }
+
+    public void setTotals(Map<String, Double> newTotals) {
+        totals = newTotals;
+    }
+
+    public String toString() {
+        StringBuilder json = new StringBuilder("{\"ids\": [");
+        if (ids != null) for (int index = 0; index < ids.size(); index++) {
+            if (index > 0) json.append(", ");
+            json.append("\"").append(ids.get(index)).append("\"");
+        }
+        json.append("], \"totals\": {");
+        if (totals != null) {
+            boolean first = true;
+            for (Map.Entry<String, Double> entry : totals.entrySet()) {
+                if (!first) json.append(", ");
+                json.append("\"").append(entry.getKey()).append("\": ").append(entry.getValue());
+                first = false;
+            }
+        }
+        return json.append("}}").toString();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+import java.util.List;
+
+/** JSON-B POJO class representing one page of accounts, and the opaque token to pass to get the next page
+ * (null on the last page) */
+public class AccountPage {
+    private List<Account> accounts;
+    private String next;
+
+
+    public AccountPage() { //default constructor
+    }
+
+    public AccountPage(List<Account> initialAccounts, String initialNext) {
+        setAccounts(initialAccounts);
+        setNext(initialNext);
+    }
+
+    public List<Account> getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(List<Account> newAccounts) {
+        accounts = newAccounts;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String newNext) {
+        next = newNext;
+    }
+
+    public String toString() {
+        return "{\"accounts\": "+accounts+", \"next\": "+(next==null ? "null" : "\""+next+"\"")+"}";
+    }
+}
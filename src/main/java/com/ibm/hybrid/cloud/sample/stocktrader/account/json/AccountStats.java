@@ -0,0 +1,63 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+import java.util.Map;
+
+/** JSON-B POJO class representing the response of GET /account/stats: figures across all accounts, and per loyalty level */
+public class AccountStats {
+    private LoyaltyStats total;
+    private Map<String, LoyaltyStats> byLoyalty;
+
+
+    public AccountStats() { //default constructor
+    }
+
+    public AccountStats(LoyaltyStats initialTotal, Map<String, LoyaltyStats> initialByLoyalty) {
+        setTotal(initialTotal);
+        setByLoyalty(initialByLoyalty);
+    }
+
+    public LoyaltyStats getTotal() {
+        return total;
+    }
+
+    public void setTotal(LoyaltyStats newTotal) {
+        total = newTotal;
+    }
+
+    public Map<String, LoyaltyStats> getByLoyalty() {
+        return byLoyalty;
+    }
+
+    public void setByLoyalty(Map<String, LoyaltyStats> newByLoyalty) {
+        byLoyalty = newByLoyalty;
+    }
+
+    public String toString() {
+        StringBuilder json = new StringBuilder("{\"total\": ").append(total).append(", \"byLoyalty\": {");
+        if (byLoyalty != null) {
+            boolean first = true;
+            for (Map.Entry<String, LoyaltyStats> entry : byLoyalty.entrySet()) {
+                if (!first) json.append(", ");
+                json.append("\"").append(entry.getKey()).append("\": ").append(entry.getValue());
+                first = false;
+            }
+        }
+        return json.append("}}").toString();
+    }
+}
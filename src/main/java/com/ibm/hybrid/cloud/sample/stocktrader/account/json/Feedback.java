@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing a Feedback JSON object */
 public class Feedback {
     private String message;
@@ -60,6 +62,20 @@ public class Feedback {
         sentiment = newSentiment;
     }
 
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof Feedback other)) return false;
+        return Objects.equals(message, other.message) && (free == other.free) &&
+                Objects.equals(sentiment, other.sentiment);
+    }
+
+    public int hashCode() {
+        int hash = Objects.hashCode(message);
+        hash = 31 * hash + free;
+        hash = 31 * hash + Objects.hashCode(sentiment);
+        return hash;
+    }
+
     public String toString() {
         return "{\"message\": \""+message+"\", \"free\": "+free+", \"sentiment\": \""+sentiment+"\"}";
     }
@@ -0,0 +1,369 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonGeneratorFactory;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+import jakarta.json.stream.JsonParserFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written JSON-P streaming readers and writers for the POJOs that cross the wire on every request: Account,
+ * Feedback and LoyaltyChange, and the ODM and Watson request/response classes.  They produce the same JSON as JSON-B
+ * does for these classes (the same property names, in the same order, with null properties left out), but without
+ * reflection or an intermediate object tree.  Unknown properties are skipped when reading, so extra fields in an ODM
+ * or Watson response don't matter.  See StreamingJsonProvider for how they are plugged into the REST layer.
+ */
+public final class JsonCodecs {
+    private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(Map.of());
+    private static final JsonParserFactory PARSERS = Json.createParserFactory(Map.of());
+
+    private JsonCodecs() {
+    }
+
+    public static JsonGenerator createGenerator(OutputStream output) {
+        return GENERATORS.createGenerator(output, StandardCharsets.UTF_8);
+    }
+
+    public static JsonParser createParser(InputStream input) {
+        return PARSERS.createParser(input, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The JSON for a LoyaltyChange, as sent to JMS.  Unlike toString, every property is present (null if unset) and
+     * the values are escaped.
+     */
+    public static String toJson(LoyaltyChange change) {
+        StringWriter json = new StringWriter(160);
+        try (JsonGenerator generator = GENERATORS.createGenerator(json)) {
+            generator.writeStartObject();
+            writeOrNull(generator, "owner", change.getOwner());
+            writeOrNull(generator, "old", change.getOld());
+            writeOrNull(generator, "new", change.getNew());
+            writeOrNull(generator, "id", change.getId());
+            writeOrNull(generator, "eventId", change.getEventId());
+            generator.writeEnd();
+        }
+        return json.toString();
+    }
+
+    public static String toJson(Account account) {
+        StringWriter json = new StringWriter(256);
+        try (JsonGenerator generator = GENERATORS.createGenerator(json)) {
+            write(generator, account);
+        }
+        return json.toString();
+    }
+
+    public static Account readAccount(String json) {
+        try (JsonParser parser = PARSERS.createParser(new StringReader(json))) {
+            return readAccount(parser, parser.next());
+        }
+    }
+
+    /** Writes the JSON-B view of an Account: the CouchDB bookkeeping fields (rev, outbox, ledgerApplied) are left out */
+    public static void write(JsonGenerator generator, Account account) {
+        generator.writeStartObject();
+        generator.write("balance", account.getBalance());
+        generator.write("commissions", account.getCommissions());
+        generator.write("free", account.getFree());
+        write(generator, "id", account.getId());
+        write(generator, "loyalty", account.getLoyalty());
+        generator.write("nextCommission", account.getNextCommission());
+        write(generator, "operation", account.getOperation());
+        write(generator, "owner", account.getOwner());
+        write(generator, "sentiment", account.getSentiment());
+        generator.writeEnd();
+    }
+
+    public static void write(JsonGenerator generator, List<Account> accounts) {
+        generator.writeStartArray();
+        for (Account account : accounts) {
+            if (account != null) write(generator, account);
+            else generator.writeNull();
+        }
+        generator.writeEnd();
+    }
+
+    public static void write(JsonGenerator generator, Feedback feedback) {
+        generator.writeStartObject();
+        generator.write("free", feedback.getFree());
+        write(generator, "message", feedback.getMessage());
+        write(generator, "sentiment", feedback.getSentiment());
+        generator.writeEnd();
+    }
+
+    public static void write(JsonGenerator generator, LoyaltyChange change) {
+        generator.writeStartObject();
+        write(generator, "eventId", change.getEventId());
+        write(generator, "id", change.getId());
+        write(generator, "new", change.getNew());
+        write(generator, "old", change.getOld());
+        write(generator, "owner", change.getOwner());
+        generator.writeEnd();
+    }
+
+    public static void write(JsonGenerator generator, ODMLoyaltyRule rule) {
+        generator.writeStartObject();
+        LoyaltyDecision decision = rule.getTheLoyaltyDecision();
+        if (decision != null) {
+            generator.writeStartObject("theLoyaltyDecision");
+            write(generator, "loyalty", decision.getLoyalty());
+            generator.write("tradeTotal", decision.getTradeTotal());
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+    }
+
+    public static void write(JsonGenerator generator, WatsonInput input) {
+        generator.writeStartObject();
+        write(generator, "text", input.getText());
+        generator.writeEnd();
+    }
+
+    public static void write(JsonGenerator generator, WatsonOutput output) {
+        generator.writeStartObject();
+        WatsonDocument document = output.getDocument_tone();
+        if (document != null) {
+            generator.writeStartObject("document_tone");
+            if (document.getTones() != null) {
+                generator.writeStartArray("tones");
+                for (WatsonTone tone : document.getTones()) {
+                    generator.writeStartObject();
+                    generator.write("score", tone.getScore());
+                    write(generator, "tone_id", tone.getTone_id());
+                    write(generator, "tone_name", tone.getTone_name());
+                    generator.writeEnd();
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+    }
+
+    /**
+     * Reads an Account, starting from its START_OBJECT event.  As with JSON-B, properties that are missing keep the
+     * values the default constructor gives them.
+     */
+    public static Account readAccount(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        Account account = new Account();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            switch (name) {
+                case "id" -> account.setId(string(parser, event));
+                case "owner" -> account.setOwner(string(parser, event));
+                case "loyalty" -> account.setLoyalty(string(parser, event));
+                case "balance" -> account.setBalance(number(parser, event, account.getBalance()));
+                case "commissions" -> account.setCommissions(number(parser, event, account.getCommissions()));
+                case "free" -> account.setFree((int) number(parser, event, account.getFree()));
+                case "sentiment" -> account.setSentiment(string(parser, event));
+                case "nextCommission" -> account.setNextCommission(number(parser, event, account.getNextCommission()));
+                case "operation" -> account.setOperation(string(parser, event));
+                default -> skip(parser, event);
+            }
+        }
+        return account;
+    }
+
+    public static List<Account> readAccounts(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        if (event != Event.START_ARRAY) throw new JsonException("Expected a JSON array but found " + event);
+        List<Account> accounts = new ArrayList<>();
+        while ((event = parser.next()) != Event.END_ARRAY) accounts.add(readAccount(parser, event));
+        return accounts;
+    }
+
+    public static Feedback readFeedback(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        Feedback feedback = new Feedback();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            switch (name) {
+                case "message" -> feedback.setMessage(string(parser, event));
+                case "free" -> feedback.setFree((int) number(parser, event, feedback.getFree()));
+                case "sentiment" -> feedback.setSentiment(string(parser, event));
+                default -> skip(parser, event);
+            }
+        }
+        return feedback;
+    }
+
+    public static LoyaltyChange readLoyaltyChange(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        LoyaltyChange change = new LoyaltyChange();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            switch (name) {
+                case "owner" -> change.setOwner(string(parser, event));
+                case "old" -> change.setOld(string(parser, event));
+                case "new" -> change.setNew(string(parser, event));
+                case "id" -> change.setId(string(parser, event));
+                case "eventId" -> change.setEventId(string(parser, event));
+                default -> skip(parser, event);
+            }
+        }
+        return change;
+    }
+
+    public static ODMLoyaltyRule readLoyaltyRule(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        ODMLoyaltyRule rule = new ODMLoyaltyRule();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            if (name.equals("theLoyaltyDecision")) rule.setTheLoyaltyDecision(readLoyaltyDecision(parser, event));
+            else skip(parser, event);
+        }
+        return rule;
+    }
+
+    private static LoyaltyDecision readLoyaltyDecision(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        LoyaltyDecision decision = new LoyaltyDecision();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            switch (name) {
+                case "loyalty" -> decision.setLoyalty(string(parser, event));
+                case "tradeTotal" -> decision.setTradeTotal(number(parser, event, decision.getTradeTotal()));
+                default -> skip(parser, event);
+            }
+        }
+        return decision;
+    }
+
+    public static WatsonInput readWatsonInput(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        WatsonInput input = new WatsonInput();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            if (name.equals("text")) input.setText(string(parser, event));
+            else skip(parser, event);
+        }
+        return input;
+    }
+
+    public static WatsonOutput readWatsonOutput(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        WatsonOutput output = new WatsonOutput();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            if (name.equals("document_tone")) output.setDocument_tone(readWatsonDocument(parser, event));
+            else skip(parser, event); //sentences_tone, for one
+        }
+        return output;
+    }
+
+    private static WatsonDocument readWatsonDocument(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        WatsonDocument document = new WatsonDocument();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            if (name.equals("tones") && (event == Event.START_ARRAY)) {
+                List<WatsonTone> tones = new ArrayList<>();
+                while ((event = parser.next()) != Event.END_ARRAY) tones.add(readWatsonTone(parser, event));
+                document.setTones(tones.toArray(new WatsonTone[0]));
+            } else {
+                skip(parser, event);
+            }
+        }
+        return document;
+    }
+
+    private static WatsonTone readWatsonTone(JsonParser parser, Event event) {
+        if (event == Event.VALUE_NULL) return null;
+        expectObject(event);
+        WatsonTone tone = new WatsonTone();
+        while ((event = parser.next()) != Event.END_OBJECT) {
+            String name = parser.getString();
+            event = parser.next();
+            switch (name) {
+                case "score" -> tone.setScore(number(parser, event, tone.getScore()));
+                case "tone_id" -> tone.setTone_id(string(parser, event));
+                case "tone_name" -> tone.setTone_name(string(parser, event));
+                default -> skip(parser, event);
+            }
+        }
+        return tone;
+    }
+
+    private static void write(JsonGenerator generator, String name, String value) {
+        if (value != null) generator.write(name, value);
+    }
+
+    private static void writeOrNull(JsonGenerator generator, String name, String value) {
+        if (value != null) generator.write(name, value);
+        else generator.writeNull(name);
+    }
+
+    private static void expectObject(Event event) {
+        if (event != Event.START_OBJECT) throw new JsonException("Expected a JSON object but found " + event);
+    }
+
+    private static String string(JsonParser parser, Event event) {
+        switch (event) {
+            case VALUE_STRING, VALUE_NUMBER:
+                return parser.getString();
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            default:
+                skip(parser, event);
+                return null;
+        }
+    }
+
+    private static double number(JsonParser parser, Event event, double defaultValue) {
+        if (event == Event.VALUE_NUMBER) return parser.isIntegralNumber() ? parser.getLong() : Double.parseDouble(parser.getString());
+        if (event == Event.VALUE_STRING) return Double.parseDouble(parser.getString()); //JSON-B accepts a quoted number too
+        skip(parser, event);
+        return defaultValue;
+    }
+
+    private static void skip(JsonParser parser, Event event) {
+        if (event == Event.START_OBJECT) parser.skipObject();
+        else if (event == Event.START_ARRAY) parser.skipArray();
+    }
+}
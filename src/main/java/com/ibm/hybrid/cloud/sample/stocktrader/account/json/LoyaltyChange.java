@@ -16,12 +16,15 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing an ODM business rule for determining the loyalty level of a portfolio */
 public class LoyaltyChange {
     private String fOwner;
     private String fOld;
     private String fNew;
     private String fId;
+    private String fEventId; //unique per change, so consumers can discard duplicate deliveries
 
 
     public LoyaltyChange() { //default constructor
@@ -65,13 +68,32 @@ public class LoyaltyChange {
         fId = initialId;
     }
 
+    public String getEventId() {
+        return fEventId;
+    }
+
+    public void setEventId(String initialEventId) {
+        fEventId = initialEventId;
+    }
+
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof LoyaltyChange)) isEqual = toString().equals(obj.toString());
-        return isEqual;
-   }
+        if (obj == this) return true;
+        if (!(obj instanceof LoyaltyChange other)) return false;
+        return Objects.equals(fOwner, other.fOwner) && Objects.equals(fOld, other.fOld) &&
+                Objects.equals(fNew, other.fNew) && Objects.equals(fId, other.fId) &&
+                Objects.equals(fEventId, other.fEventId);
+    }
+
+    public int hashCode() {
+        int hash = Objects.hashCode(fOwner);
+        hash = 31 * hash + Objects.hashCode(fOld);
+        hash = 31 * hash + Objects.hashCode(fNew);
+        hash = 31 * hash + Objects.hashCode(fId);
+        hash = 31 * hash + Objects.hashCode(fEventId);
+        return hash;
+    }
 
     public String toString() {
-        return "{\"owner\": \""+fOwner+"\", \"old\": \""+fOld+"\", \"new\": \""+fNew+"\", \"id\": \""+fId+"\"}";
+        return "{\"owner\": \""+fOwner+"\", \"old\": \""+fOld+"\", \"new\": \""+fNew+"\", \"id\": \""+fId+"\", \"eventId\": \""+fEventId+"\"}";
     }
 }
@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing an ODM business rule for determining the loyalty level of a portfolio */
 public class LoyaltyDecision {
     private double tradeTotal = 0.0;
@@ -46,10 +48,16 @@ public class LoyaltyDecision {
     }
 
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof LoyaltyDecision)) isEqual = toString().equals(obj.toString());
-        return isEqual;
-   }
+        if (obj == this) return true;
+        if (!(obj instanceof LoyaltyDecision other)) return false;
+        return (Double.compare(tradeTotal, other.tradeTotal) == 0) && Objects.equals(loyalty, other.loyalty);
+    }
+
+    public int hashCode() {
+        int hash = Double.hashCode(tradeTotal);
+        hash = 31 * hash + Objects.hashCode(loyalty);
+        return hash;
+    }
 
     public String toString() {
         return "{\"tradeTotal\": "+tradeTotal+", \"loyalty\": \""+loyalty+"\"}";
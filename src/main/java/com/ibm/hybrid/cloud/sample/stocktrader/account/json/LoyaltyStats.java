@@ -0,0 +1,105 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+/** JSON-B POJO class representing the aggregate figures for the accounts at one loyalty level (or for all of them) */
+public class LoyaltyStats {
+    private long accounts;
+    private double balance;
+    private double minBalance;
+    private double maxBalance;
+    private double commissions;
+    private long freeTrades;
+
+
+    public LoyaltyStats() { //default constructor
+    }
+
+    public LoyaltyStats(long initialAccounts, double initialBalance, double initialMinBalance, double initialMaxBalance,
+                        double initialCommissions, long initialFreeTrades) {
+        setAccounts(initialAccounts);
+        setBalance(initialBalance);
+        setMinBalance(initialMinBalance);
+        setMaxBalance(initialMaxBalance);
+        setCommissions(initialCommissions);
+        setFreeTrades(initialFreeTrades);
+    }
+
+    public long getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(long newAccounts) {
+        accounts = newAccounts;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public void setBalance(double newBalance) {
+        balance = newBalance;
+    }
+
+    public double getMinBalance() {
+        return minBalance;
+    }
+
+    public void setMinBalance(double newMinBalance) {
+        minBalance = newMinBalance;
+    }
+
+    public double getMaxBalance() {
+        return maxBalance;
+    }
+
+    public void setMaxBalance(double newMaxBalance) {
+        maxBalance = newMaxBalance;
+    }
+
+    public double getCommissions() {
+        return commissions;
+    }
+
+    public void setCommissions(double newCommissions) {
+        commissions = newCommissions;
+    }
+
+    public long getFreeTrades() {
+        return freeTrades;
+    }
+
+    public void setFreeTrades(long newFreeTrades) {
+        freeTrades = newFreeTrades;
+    }
+
+    /** Folds another level's figures into these, for the overall totals */
+    public void add(LoyaltyStats other) {
+        if (other.getAccounts() == 0) return;
+        minBalance = (accounts == 0) ? other.getMinBalance() : Math.min(minBalance, other.getMinBalance());
+        maxBalance = (accounts == 0) ? other.getMaxBalance() : Math.max(maxBalance, other.getMaxBalance());
+        accounts += other.getAccounts();
+        balance += other.getBalance();
+        commissions += other.getCommissions();
+        freeTrades += other.getFreeTrades();
+    }
+
+    public String toString() {
+        return "{\"accounts\": "+accounts+", \"balance\": "+balance+", \"minBalance\": "+minBalance+", \"maxBalance\": "+maxBalance
+                +", \"commissions\": "+commissions+", \"freeTrades\": "+freeTrades+"}";
+    }
+}
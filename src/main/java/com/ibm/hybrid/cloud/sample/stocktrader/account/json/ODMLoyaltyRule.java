@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing an ODM business rule for determining the loyalty level of a portfolio */
 public class ODMLoyaltyRule {
     private LoyaltyDecision theLoyaltyDecision = null;
@@ -44,12 +46,16 @@ public class ODMLoyaltyRule {
     }
 
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof ODMLoyaltyRule)) isEqual = toString().equals(obj.toString());
-        return isEqual;
-   }
+        if (obj == this) return true;
+        if (!(obj instanceof ODMLoyaltyRule other)) return false;
+        return Objects.equals(theLoyaltyDecision, other.theLoyaltyDecision);
+    }
+
+    public int hashCode() {
+        return Objects.hashCode(theLoyaltyDecision);
+    }
 
     public String toString() {
-        return "{\"theLoyaltyDecision\": "+theLoyaltyDecision.toString()+"}";
+        return "{\"theLoyaltyDecision\": "+theLoyaltyDecision+"}";
     }
 }
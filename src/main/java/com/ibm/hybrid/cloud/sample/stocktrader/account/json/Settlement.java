@@ -0,0 +1,66 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+import java.util.Objects;
+
+/** JSON-B POJO class representing one trade to settle: the account it is for, and the portfolio total after it */
+public class Settlement {
+    private String id;
+    private double total;
+
+
+    public Settlement() { //default constructor
+    }
+
+    public Settlement(String initialId, double initialTotal) {
+        setId(initialId);
+        setTotal(initialTotal);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String newId) {
+        id = newId;
+    }
+
+    public double getTotal() {
+        return total;
+    }
+
+    public void setTotal(double newTotal) {
+        total = newTotal;
+    }
+
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof Settlement other)) return false;
+        return Objects.equals(id, other.id) && (Double.compare(total, other.total) == 0);
+    }
+
+    public int hashCode() {
+        int hash = Objects.hashCode(id);
+        hash = 31 * hash + Double.hashCode(total);
+        return hash;
+    }
+
+    public String toString() {
+        return "{\"id\": \""+id+"\", \"total\": "+total+"}";
+    }
+}
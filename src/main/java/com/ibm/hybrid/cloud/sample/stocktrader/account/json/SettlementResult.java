@@ -0,0 +1,85 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+/** JSON-B POJO class representing the outcome of settling the trades for one account */
+public class SettlementResult {
+    public static final String OK = "ok";
+    public static final String CONFLICT = "conflict";
+    public static final String NOT_FOUND = "not_found";
+    public static final String ERROR = "error";
+
+    private String id;
+    private String status;
+    private int trades;
+    private String message;
+    private Account account;
+
+
+    public SettlementResult() { //default constructor
+    }
+
+    public SettlementResult(String initialId, String initialStatus, int initialTrades) {
+        setId(initialId);
+        setStatus(initialStatus);
+        setTrades(initialTrades);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String newId) {
+        id = newId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String newStatus) {
+        status = newStatus;
+    }
+
+    public int getTrades() {
+        return trades;
+    }
+
+    public void setTrades(int newTrades) {
+        trades = newTrades;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String newMessage) {
+        message = newMessage;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account newAccount) {
+        account = newAccount;
+    }
+
+    public String toString() {
+        return "{\"id\": \""+id+"\", \"status\": \""+status+"\", \"trades\": "+trades+", \"message\": \""+message+"\", \"account\": "+account+"}";
+    }
+}
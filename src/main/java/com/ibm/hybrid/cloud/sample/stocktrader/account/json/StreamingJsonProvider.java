@@ -0,0 +1,139 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
+
+import jakarta.annotation.Priority;
+import jakarta.json.JsonException;
+import jakarta.json.stream.JsonGenerator;
+import jakarta.json.stream.JsonParser;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyReader;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads and writes the JSON bodies of Account (and lists of them), Feedback, LoyaltyChange and the ODM and Watson
+ * POJOs with JsonCodecs, in place of the reflective JSON-B provider.  Its priority puts it ahead of quarkus-rest-jsonb,
+ * which still handles every other type.  The ODM and Watson REST clients register it too.
+ * <p>
+ * A body that isn't well-formed JSON, or doesn't have the shape or number formats the codec expects, is rejected with
+ * a 400 rather than surfacing as a 500.
+ */
+@Provider
+@Priority(Priorities.USER - 100)
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class StreamingJsonProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+    private static final Set<Class<?>> TYPES = Set.of(Account.class, Feedback.class, LoyaltyChange.class,
+            ODMLoyaltyRule.class, WatsonInput.class, WatsonOutput.class);
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return TYPES.contains(type) || isAccountList(type, genericType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        try (JsonParser parser = JsonCodecs.createParser(new UnclosedInputStream(entityStream))) {
+            JsonParser.Event event = parser.next();
+            if (type == Account.class) return JsonCodecs.readAccount(parser, event);
+            if (type == Feedback.class) return JsonCodecs.readFeedback(parser, event);
+            if (type == LoyaltyChange.class) return JsonCodecs.readLoyaltyChange(parser, event);
+            if (type == ODMLoyaltyRule.class) return JsonCodecs.readLoyaltyRule(parser, event);
+            if (type == WatsonInput.class) return JsonCodecs.readWatsonInput(parser, event);
+            if (type == WatsonOutput.class) return JsonCodecs.readWatsonOutput(parser, event);
+            return JsonCodecs.readAccounts(parser, event);
+        } catch (JsonException | NumberFormatException | NoSuchElementException e) { //JsonParsingException is a JsonException
+            throw new BadRequestException("Malformed JSON " + type.getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return TYPES.contains(type) || isAccountList(type, genericType);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        try (JsonGenerator generator = JsonCodecs.createGenerator(new UnclosedOutputStream(entityStream))) {
+            if (value instanceof Account account) JsonCodecs.write(generator, account);
+            else if (value instanceof Feedback feedback) JsonCodecs.write(generator, feedback);
+            else if (value instanceof LoyaltyChange change) JsonCodecs.write(generator, change);
+            else if (value instanceof ODMLoyaltyRule rule) JsonCodecs.write(generator, rule);
+            else if (value instanceof WatsonInput input) JsonCodecs.write(generator, input);
+            else if (value instanceof WatsonOutput output) JsonCodecs.write(generator, output);
+            else JsonCodecs.write(generator, (List<Account>) value);
+        }
+    }
+
+    /**
+     * True for a List whose element type is Account (the return type of the getAll and batch endpoints)
+     */
+    private static boolean isAccountList(Class<?> type, Type genericType) {
+        return List.class.isAssignableFrom(type) && (genericType instanceof ParameterizedType parameterized)
+                && (parameterized.getActualTypeArguments().length == 1)
+                && (parameterized.getActualTypeArguments()[0] == Account.class);
+    }
+
+    /**
+     * Closing a JSON-P generator or parser closes its stream, which belongs to the container rather than to us
+     */
+    private static final class UnclosedOutputStream extends FilterOutputStream {
+        UnclosedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length); //FilterOutputStream would write them a byte at a time
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final class UnclosedInputStream extends FilterInputStream {
+        UnclosedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Arrays;
+
 /** JSON-B POJO class representing a Watson Tone Analyzer document JSON object */
 public class WatsonDocument {
     private WatsonTone[] tones;
@@ -37,13 +39,17 @@ public class WatsonDocument {
     }
 
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof WatsonDocument)) isEqual = toString().equals(obj.toString());
-        return isEqual;
+        if (obj == this) return true;
+        if (!(obj instanceof WatsonDocument other)) return false;
+        return Arrays.equals(tones, other.tones);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(tones);
     }
 
     public String toString() {
-        StringBuffer json = new StringBuffer("{\"tones\": ");
+        StringBuffer json = new StringBuffer("{\"tones\": [");
         if (tones != null) {
             for (int index=0; index<tones.length; index++) {
                 WatsonTone tone = tones[index];
@@ -51,7 +57,7 @@ public class WatsonDocument {
                 if (index != tones.length-1) json.append(", ");
             }
         }
-        json.append("}");
+        json.append("]}");
         return json.toString();
     }
 }
@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing a Watson Tone Analyzer input JSON object */
 public class WatsonInput {
     private String text;
@@ -36,6 +38,16 @@ public class WatsonInput {
         text = newText;
     }
 
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof WatsonInput other)) return false;
+        return Objects.equals(text, other.text);
+    }
+
+    public int hashCode() {
+        return Objects.hashCode(text);
+    }
+
     public String toString() {
         return "{\"text\": \""+text+"\"}";
     }
@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing a Watson Tone Analyzer output JSON object */
 public class WatsonOutput {
     private WatsonDocument document_tone;
@@ -56,10 +58,14 @@ public class WatsonOutput {
     }
 
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof WatsonOutput)) isEqual = toString().equals(obj.toString());
-        return isEqual;
-   }
+        if (obj == this) return true;
+        if (!(obj instanceof WatsonOutput other)) return false;
+        return Objects.equals(document_tone, other.document_tone);
+    }
+
+    public int hashCode() {
+        return Objects.hashCode(document_tone);
+    }
 
     public String toString() {
         StringBuffer json = new StringBuffer("{\"document_tone\": ");
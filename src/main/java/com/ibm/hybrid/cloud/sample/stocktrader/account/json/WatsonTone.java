@@ -16,6 +16,8 @@
 
 package com.ibm.hybrid.cloud.sample.stocktrader.account.json;
 
+import java.util.Objects;
+
 /** JSON-B POJO class representing a Watson Tone Analyzer tone JSON object */
 public class WatsonTone {
     private double score;
@@ -57,12 +59,20 @@ public class WatsonTone {
     }
 
     public boolean equals(Object obj) {
-        boolean isEqual = false;
-        if ((obj != null) && (obj instanceof WatsonTone)) isEqual = toString().equals(obj.toString());
-        return isEqual;
-   }
+        if (obj == this) return true;
+        if (!(obj instanceof WatsonTone other)) return false;
+        return (Double.compare(score, other.score) == 0) && Objects.equals(tone_id, other.tone_id) &&
+                Objects.equals(tone_name, other.tone_name);
+    }
+
+    public int hashCode() {
+        int hash = Double.hashCode(score);
+        hash = 31 * hash + Objects.hashCode(tone_id);
+        hash = 31 * hash + Objects.hashCode(tone_name);
+        return hash;
+    }
 
     public String toString() {
-        return "{\"score\": "+score+", tone_id\": \""+tone_id+"\", \"tone_name\": \""+tone_name+"\"}";
+        return "{\"score\": "+score+", \"tone_id\": \""+tone_id+"\", \"tone_name\": \""+tone_name+"\"}";
     }
 }
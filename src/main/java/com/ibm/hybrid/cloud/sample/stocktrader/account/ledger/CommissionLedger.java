@@ -0,0 +1,514 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.ledger;
+
+import com.ibm.cloud.cloudant.v1.Cloudant;
+import com.ibm.cloud.cloudant.v1.model.*;
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountCache;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+
+import static com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments.number;
+import static com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments.stringList;
+
+/**
+ * Append-only ledger of per-trade commission charges, with a write-behind aggregator that folds them into the
+ * Account documents.
+ * <p>
+ * Each trade becomes a small, immutable entry in the ledger database (by default the account database name with a
+ * _ledger suffix) instead of a rewrite of the whole Account document.  Every account.ledger.flush-interval the
+ * pending deltas for all accounts are applied with one _all_docs read and one _bulk_docs write, after which the
+ * entries are deleted from the ledger, so it only ever holds trades that haven't reached their account yet.
+ * <p>
+ * With account.ledger.sync=true (the default) each entry is written before the trade is acknowledged, so an
+ * acknowledged trade survives a crash: whatever is left in the ledger is picked up again, with a paged _all_docs read
+ * that needs no index.  The ledger is shared by every replica, so each entry names the instance that wrote it
+ * (account.ledger.instance, the pod's host name by default).  At startup a pod takes back its own entries; entries
+ * written by other instances are only taken over once they are older than account.ledger.recovery-grace, which a
+ * live replica would have flushed long before, and every account.ledger.recovery-interval the ledger is checked again
+ * for such abandoned entries.
+ * <p>
+ * Taking over an entry that its writer still has queued can't charge it twice either.  Each Account lists the ids of
+ * the entries it has absorbed (ledgerApplied), and an id stays on that list until a later flush sees its entry gone
+ * from the ledger.  Before applying anything, a flush checks which of its entries are still in the ledger: an entry
+ * that is listed has already been applied, and one that is gone was applied and deleted by whichever replica got to
+ * it first, so both are skipped.  So however many times deleting an entry fails, a flush's response is lost, or two
+ * replicas hold the same entry, it is charged once.  With account.ledger.sync=false entries are only written at flush
+ * time, trading up to one flush interval of trades on a crash for one less write per trade.
+ */
+@ApplicationScoped
+public class CommissionLedger {
+    private static final Logger logger = Logger.getLogger(CommissionLedger.class.getName());
+    private static final String ACCOUNT_ID = "accountId";
+    private static final String COMMISSIONS = "commissions";
+    private static final String BALANCE = "balance";
+    private static final String FREE = "free";
+    private static final String CREATED = "created";
+    private static final String WRITER = "writer";
+    private static final String LEDGER_APPLIED = "ledgerApplied";
+    private static final int RECOVERY_PAGE_SIZE = 200;
+
+    @ConfigProperty(name = "account.ledger.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "account.ledger.sync", defaultValue = "true")
+    boolean sync;
+
+    @ConfigProperty(name = "account.ledger.database")
+    Optional<String> ledgerDatabaseName;
+
+    @ConfigProperty(name = "account.ledger.instance")
+    Optional<String> instanceName;
+
+    @ConfigProperty(name = "account.ledger.recovery-grace", defaultValue = "PT1M")
+    Duration recoveryGrace;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    @Inject
+    AccountCache accountCache;
+
+    @Inject
+    MeterRegistry registry;
+
+    // entries not yet folded into their Account document, by account id; the lists are copy-on-write
+    private final ConcurrentHashMap<String, List<Entry>> pending = new ConcurrentHashMap<>();
+    // entries being written by the current flush, so reads still see them until the account document has them
+    private final ConcurrentHashMap<String, List<Entry>> inFlight = new ConcurrentHashMap<>();
+    // applied entries that couldn't be deleted from the ledger, retried on the next flush
+    private final ConcurrentLinkedQueue<Entry> undeleted = new ConcurrentLinkedQueue<>();
+    // written into each entry, so that other replicas leave it alone while this one is alive
+    private String instance = UUID.randomUUID().toString();
+
+    void onStart(@Observes StartupEvent ev) {
+        if (!enabled) return;
+        instanceName.filter(name -> !name.isBlank()).ifPresent(name -> instance = name);
+        registry.gaugeMapSize("account.ledger.pending.accounts", Tags.empty(), pending);
+        if (!couchDbClient.isConfigured()) {
+            logger.warning("Some jnosql.* properties are blank. The commission ledger can't be used.");
+            return;
+        }
+
+        Cloudant service = couchDbClient.getService();
+        try {
+            service.putDatabase(new PutDatabaseOptions.Builder().db(getLedgerDatabase()).build()).execute();
+            logger.info("Created commission ledger database " + getLedgerDatabase());
+        } catch (ServiceResponseException sre) {
+            if (sre.getStatusCode() != 412) throw sre; //412 means it already exists
+        }
+        recover();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a trade's effect on an account.  Returns once the entry is durable (or, with account.ledger.sync=false,
+     * once it is queued for the next flush).
+     */
+    public void record(String accountId, double commissionsDelta, double balanceDelta, int freeDelta) {
+        Entry entry = new Entry(UUID.randomUUID().toString(), accountId, commissionsDelta, balanceDelta, freeDelta, instance);
+        if (sync) {
+            DocumentResult result = dependencyMetrics.time(DependencyMetrics.COUCHDB, "ledgerRecord", () ->
+                    couchDbClient.getService().putDocument(new PutDocumentOptions.Builder()
+                            .db(getLedgerDatabase())
+                            .docId(entry.id)
+                            .document(entry.toDocument())
+                            .build()).execute().getResult());
+            entry.rev = result.getRev();
+        }
+        pending.compute(accountId, (id, entries) -> {
+            List<Entry> list = (entries != null) ? new ArrayList<>(entries) : new ArrayList<>();
+            list.add(entry);
+            return list;
+        });
+        registry.counter("account.ledger.entries").increment();
+    }
+
+    /**
+     * Returns a copy of the account with the charges recorded by this pod that aren't in its document yet applied.
+     * Entries listed in the document's ledgerApplied are skipped, so a read racing with a flush isn't charged twice.
+     */
+    public Account overlay(Account account) {
+        if (!enabled || account == null) return account;
+        List<Entry> flushing = inFlight.get(account.getId());
+        List<Entry> entries = pending.get(account.getId());
+        if (flushing == null && entries == null) return account;
+
+        Set<String> absorbed = (account.getLedgerApplied() != null) ? new HashSet<>(account.getLedgerApplied()) : Collections.emptySet();
+        Account result = new Account(account);
+        for (List<Entry> list : Arrays.asList(flushing, entries)) {
+            if (list == null) continue;
+            for (Entry entry : list) {
+                if (absorbed.contains(entry.id)) continue;
+                result.setCommissions(result.getCommissions() + entry.commissions);
+                result.setBalance(result.getBalance() + entry.balance);
+                result.setFree(result.getFree() + entry.free);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Folds the pending entries into their Account documents.  Runs every account.ledger.flush-interval.
+     */
+    @Scheduled(every = "${account.ledger.flush-interval:5s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void flush() {
+        if (!enabled || !couchDbClient.isConfigured()) return;
+        Cloudant service = couchDbClient.getService();
+        retryUndeleted(service);
+        if (pending.isEmpty()) return;
+
+        Map<String, List<Entry>> batch = new HashMap<>();
+        for (String id : new ArrayList<>(pending.keySet())) {
+            // hand the entries over to inFlight atomically, so overlay() always sees them in one map or the other
+            pending.computeIfPresent(id, (key, entries) -> {
+                inFlight.put(key, entries);
+                batch.put(key, entries);
+                return null;
+            });
+        }
+        if (batch.isEmpty()) return;
+
+        String databaseName = couchDbClient.getDatabaseName();
+        try {
+            if (!sync) writeEntries(service, batch);
+
+            List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findByIds", () ->
+                    service.postAllDocs(new PostAllDocsOptions.Builder()
+                            .db(databaseName)
+                            .keys(new ArrayList<>(batch.keySet()))
+                            .includeDocs(true)
+                            .build()).execute().getResult().getRows());
+
+            // which of the listed entries and of the ones about to be applied are gone from the ledger
+            Set<String> ids = new HashSet<>();
+            for (DocsResultRow row : rows) {
+                if (row.getDoc() != null) ids.addAll(stringList(row.getDoc().get(LEDGER_APPLIED)));
+            }
+            batch.values().forEach(entries -> entries.forEach(entry -> ids.add(entry.id)));
+            Set<String> retired = deletedEntries(service, ids);
+
+            List<Document> accounts = new ArrayList<>();
+            for (DocsResultRow row : rows) {
+                Document account = row.getDoc();
+                List<Entry> entries = batch.get(row.getKey());
+                if (account == null || entries == null) {
+                    logger.warning("Account " + row.getKey() + " no longer exists. Discarding " + (entries == null ? 0 : entries.size()) + " ledger entries.");
+                    if (entries != null) deleteEntries(service, entries);
+                    batch.remove(row.getKey());
+                    inFlight.remove(row.getKey());
+                    continue;
+                }
+                apply(account, entries, retired);
+                accounts.add(account);
+            }
+
+            List<DocumentResult> results = dependencyMetrics.time(DependencyMetrics.COUCHDB, "saveAll", () ->
+                    service.postBulkDocs(new PostBulkDocsOptions.Builder()
+                            .db(databaseName)
+                            .bulkDocs(new BulkDocs.Builder().docs(accounts).build())
+                            .build()).execute().getResult());
+
+            List<Entry> applied = new ArrayList<>();
+            for (DocumentResult result : results) {
+                List<Entry> entries = batch.get(result.getId());
+                if (entries == null) continue;
+                if (Boolean.TRUE.equals(result.isOk())) {
+                    applied.addAll(entries);
+                } else {
+                    registry.counter("account.ledger.conflicts").increment();
+                    requeue(result.getId(), entries); //usually a conflict with a concurrent update; try again next time
+                }
+                inFlight.remove(result.getId());
+                accountCache.invalidate(result.getId());
+            }
+            deleteEntries(service, applied);
+            registry.counter("account.ledger.flushed.entries").increment(applied.size());
+            registry.counter("account.ledger.flushed.accounts").increment(results.size());
+            logger.fine("Flushed " + applied.size() + " ledger entries to " + results.size() + " accounts");
+        } catch (Throwable t) {
+            logger.warning("Error flushing the commission ledger; will retry. " + t.getClass().getName() + ": " + t.getMessage());
+            batch.forEach((id, entries) -> {
+                requeue(id, entries);
+                inFlight.remove(id);
+            });
+        }
+    }
+
+    /**
+     * Rebuilds the pending deltas from this instance's entries still in the ledger, e.g. after a crash, and from
+     * entries other instances have abandoned.  Runs at startup.
+     */
+    public void recover() {
+        recover(true);
+    }
+
+    /**
+     * Takes over entries that other instances have left in the ledger for longer than account.ledger.recovery-grace,
+     * such as those of a pod that crashed and came back under a different name
+     */
+    @Scheduled(every = "${account.ledger.recovery-interval:1m}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void recoverAbandoned() {
+        recover(false);
+    }
+
+    private void recover(boolean startup) {
+        if (!enabled || !couchDbClient.isConfigured()) return;
+        Cloudant service = couchDbClient.getService();
+
+        long abandonedBefore = System.currentTimeMillis() - recoveryGrace.toMillis();
+        String startKey = null;
+        Map<String, List<Entry>> unapplied = new HashMap<>();
+        List<Entry> retired = new ArrayList<>();
+        while (true) {
+            PostAllDocsOptions.Builder builder = new PostAllDocsOptions.Builder()
+                    .db(getLedgerDatabase())
+                    .includeDocs(true)
+                    .limit(RECOVERY_PAGE_SIZE);
+            if (startKey != null) builder.startKey(startKey).skip(1); //the page starts with the last entry of the previous one
+            List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "ledgerRecover", () ->
+                    service.postAllDocs(builder.build()).execute().getResult().getRows());
+            if (rows == null || rows.isEmpty()) break;
+
+            for (DocsResultRow row : rows) {
+                Document doc = row.getDoc();
+                if (doc == null || doc.getId().startsWith("_design/")) continue;
+                Entry entry = Entry.fromDocument(doc);
+                if (isQueued(entry)) continue; //this pod already has it
+                boolean own = startup && instance.equals(entry.writer);
+                if (!own && entry.created > abandonedBefore) continue; //most likely still queued by the replica that wrote it
+                unapplied.computeIfAbsent(entry.accountId, id -> new ArrayList<>()).add(entry);
+            }
+            startKey = rows.get(rows.size() - 1).getId();
+            if (rows.size() < RECOVERY_PAGE_SIZE) break;
+        }
+
+        int recovered = 0;
+        if (!unapplied.isEmpty()) {
+            // entries that made it into their account before the crash only need deleting
+            List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findByIds", () ->
+                    service.postAllDocs(new PostAllDocsOptions.Builder()
+                            .db(couchDbClient.getDatabaseName())
+                            .keys(new ArrayList<>(unapplied.keySet()))
+                            .includeDocs(true)
+                            .build()).execute().getResult().getRows());
+            for (DocsResultRow row : rows) {
+                List<Entry> entries = unapplied.get(row.getKey());
+                if (row.getDoc() == null || entries == null) continue;
+                Set<String> absorbed = new HashSet<>(stringList(row.getDoc().get(LEDGER_APPLIED)));
+                entries.removeIf(entry -> {
+                    boolean done = absorbed.contains(entry.id);
+                    if (done) retired.add(entry);
+                    return done;
+                });
+            }
+            for (Map.Entry<String, List<Entry>> entries : unapplied.entrySet()) {
+                if (entries.getValue().isEmpty()) continue;
+                requeue(entries.getKey(), entries.getValue());
+                recovered += entries.getValue().size();
+            }
+        }
+        deleteEntries(service, retired);
+        if (startup || recovered > 0) logger.info("Recovered " + recovered + " unapplied commission ledger entries");
+    }
+
+    /**
+     * Adds the entries' deltas to the account document and lists their ids in its ledgerApplied, which also keeps
+     * every earlier id whose entry hasn't been deleted from the ledger yet.  Entries the document already lists (from
+     * an earlier flush whose response was lost, or another replica's flush) are skipped rather than charged again, as
+     * are entries that are gone from the ledger, which only happens once they have been applied.
+     */
+    private void apply(Document account, List<Entry> entries, Set<String> retired) {
+        double commissions = number(account.get(COMMISSIONS));
+        double balance = number(account.get(BALANCE));
+        int free = (int) number(account.get(FREE));
+        Set<String> absorbed = new LinkedHashSet<>(stringList(account.get(LEDGER_APPLIED)));
+        absorbed.removeAll(retired);
+        for (Entry entry : entries) {
+            if (retired.contains(entry.id) || !absorbed.add(entry.id)) {
+                registry.counter("account.ledger.duplicates").increment();
+                continue;
+            }
+            commissions += entry.commissions;
+            balance += entry.balance;
+            free += entry.free;
+        }
+        account.put(COMMISSIONS, commissions);
+        account.put(BALANCE, balance);
+        account.put(FREE, free);
+        account.put(LEDGER_APPLIED, new ArrayList<>(absorbed));
+    }
+
+    /**
+     * Returns which of the entry ids are no longer in the ledger, and so have been applied already.  If the ledger
+     * can't be read the flush fails, since without the answer an entry another replica applied could be charged again.
+     */
+    private Set<String> deletedEntries(Cloudant service, Set<String> ids) {
+        if (ids.isEmpty()) return Collections.emptySet();
+        Set<String> deleted = new HashSet<>();
+        List<DocsResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "ledgerCheck", () ->
+                service.postAllDocs(new PostAllDocsOptions.Builder()
+                        .db(getLedgerDatabase())
+                        .keys(new ArrayList<>(ids))
+                        .build()).execute().getResult().getRows());
+        for (DocsResultRow row : rows) {
+            boolean gone = (row.getError() != null) || (row.getValue() != null && Boolean.TRUE.equals(row.getValue().isDeleted()));
+            if (gone) deleted.add(row.getKey());
+        }
+        return deleted;
+    }
+
+    private void writeEntries(Cloudant service, Map<String, List<Entry>> batch) {
+        List<Entry> entries = new ArrayList<>();
+        batch.values().forEach(entries::addAll);
+        List<Document> docs = new ArrayList<>(entries.size());
+        for (Entry entry : entries) docs.add(entry.toDocument());
+
+        List<DocumentResult> results = dependencyMetrics.time(DependencyMetrics.COUCHDB, "ledgerWrite", () ->
+                service.postBulkDocs(new PostBulkDocsOptions.Builder()
+                        .db(getLedgerDatabase())
+                        .bulkDocs(new BulkDocs.Builder().docs(docs).build())
+                        .build()).execute().getResult());
+        int failed = 0;
+        for (int index = 0; index < results.size(); index++) {
+            DocumentResult result = results.get(index);
+            if (Boolean.TRUE.equals(result.isOk())) entries.get(index).rev = result.getRev();
+            else failed++;
+        }
+        // an entry missing from the ledger would look as if it had already been applied, so don't flush without it
+        if (failed > 0) throw new IllegalStateException("Unable to write " + failed + " of " + entries.size() + " ledger entries");
+    }
+
+    private void deleteEntries(Cloudant service, List<Entry> entries) {
+        if (entries.isEmpty()) return;
+        List<Document> docs = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            docs.add(new Document.Builder().id(entry.id).rev(entry.rev).deleted(true).build());
+        }
+        try {
+            List<DocumentResult> results = dependencyMetrics.time(DependencyMetrics.COUCHDB, "ledgerDelete", () ->
+                    service.postBulkDocs(new PostBulkDocsOptions.Builder()
+                            .db(getLedgerDatabase())
+                            .bulkDocs(new BulkDocs.Builder().docs(docs).build())
+                            .build()).execute().getResult());
+            for (int index = 0; index < results.size(); index++) {
+                DocumentResult result = results.get(index);
+                // entries never change, so a conflict or not_found means the entry is already gone
+                if (!Boolean.TRUE.equals(result.isOk()) && !"conflict".equals(result.getError())
+                        && !"not_found".equals(result.getError())) undeleted.add(entries.get(index));
+            }
+        } catch (Throwable t) {
+            // until this succeeds, the account's ledgerApplied list stops these being applied twice
+            logger.warning("Unable to delete " + entries.size() + " applied ledger entries; will retry. " + t.getMessage());
+            undeleted.addAll(entries);
+        }
+    }
+
+    private void retryUndeleted(Cloudant service) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry = undeleted.poll(); entry != null; entry = undeleted.poll()) entries.add(entry);
+        deleteEntries(service, entries);
+    }
+
+    private boolean isQueued(Entry entry) {
+        for (Map<String, List<Entry>> entries : List.of(pending, inFlight)) {
+            List<Entry> list = entries.get(entry.accountId);
+            if (list != null && list.stream().anyMatch(queued -> queued.id.equals(entry.id))) return true;
+        }
+        return undeleted.stream().anyMatch(queued -> queued.id.equals(entry.id)); //applied, waiting to be deleted
+    }
+
+    private void requeue(String accountId, List<Entry> entries) {
+        pending.compute(accountId, (id, current) -> {
+            List<Entry> list = new ArrayList<>(entries); //older entries first
+            if (current != null) list.addAll(current);
+            return list;
+        });
+    }
+
+    private String getLedgerDatabase() {
+        return ledgerDatabaseName.orElse(couchDbClient.getDatabaseName() + "_ledger");
+    }
+
+    private static final class Entry {
+        private final String id;
+        private final String accountId;
+        private final double commissions;
+        private final double balance;
+        private final int free;
+        private final long created;
+        private final String writer;
+        private String rev;
+
+        private Entry(String id, String accountId, double commissions, double balance, int free, String writer) {
+            this(id, accountId, commissions, balance, free, System.currentTimeMillis(), writer);
+        }
+
+        private Entry(String id, String accountId, double commissions, double balance, int free, long created, String writer) {
+            this.id = id;
+            this.accountId = accountId;
+            this.commissions = commissions;
+            this.balance = balance;
+            this.free = free;
+            this.created = created;
+            this.writer = writer;
+        }
+
+        private Document toDocument() {
+            Document.Builder builder = new Document.Builder()
+                    .id(id)
+                    .add(ACCOUNT_ID, accountId)
+                    .add(COMMISSIONS, commissions)
+                    .add(BALANCE, balance)
+                    .add(FREE, free)
+                    .add(CREATED, created);
+            if (writer != null) builder.add(WRITER, writer);
+            if (rev != null) builder.rev(rev);
+            return builder.build();
+        }
+
+        private static Entry fromDocument(Document doc) {
+            Entry entry = new Entry(doc.getId(), String.valueOf(doc.get(ACCOUNT_ID)), number(doc.get(COMMISSIONS)),
+                    number(doc.get(BALANCE)), (int) number(doc.get(FREE)), (long) number(doc.get(CREATED)),
+                    AccountDocuments.string(doc.get(WRITER)));
+            entry.rev = doc.getRev();
+            return entry;
+        }
+    }
+}
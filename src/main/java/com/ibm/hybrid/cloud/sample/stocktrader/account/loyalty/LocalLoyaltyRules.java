@@ -0,0 +1,139 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty;
+
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * In-process evaluation of the loyalty level business rule, equivalent to the LoyaltyMetalTable decision table in
+ * stock-trader-loyalty-decision-service.zip.  The tiers are read from a properties file (see loyalty-rules.properties)
+ * named by loyalty.rules.file, falling back to the copy bundled in the application.  An external rules file is
+ * checked for changes every loyalty.rules.reload and swapped in without a restart.
+ */
+@ApplicationScoped
+public class LocalLoyaltyRules {
+    private static final Logger logger = Logger.getLogger(LocalLoyaltyRules.class.getName());
+    private static final String BUNDLED_RULES = "loyalty-rules.properties";
+    private static final String VERSION = "rules.version";
+    private static final String DEFAULT_LEVEL = "rules.default";
+    private static final String ABOVE = "rules.above.";
+
+    @ConfigProperty(name = "loyalty.rules.file")
+    Optional<String> rulesFile;
+
+    private volatile RuleSet rules;
+    private volatile long lastModified = -1;
+
+    void onStart(@Observes StartupEvent ev) {
+        load();
+    }
+
+    /**
+     * Returns the loyalty level for the given trade total
+     */
+    public String evaluate(double tradeTotal) {
+        RuleSet current = rules;
+        if (current == null) {
+            load();
+            current = rules;
+        }
+        for (Tier tier : current.tiers()) {
+            if (tradeTotal > tier.threshold()) return tier.level();
+        }
+        return current.defaultLevel();
+    }
+
+    public String getVersion() {
+        RuleSet current = rules;
+        return current != null ? current.version() : null;
+    }
+
+    @Scheduled(every = "${loyalty.rules.reload:30s}", delayed = "${loyalty.rules.reload:30s}")
+    void reloadIfChanged() {
+        if (rulesFile.isEmpty()) return;
+        try {
+            long modified = Files.getLastModifiedTime(Path.of(rulesFile.get())).toMillis();
+            if (modified != lastModified) {
+                logger.info("Loyalty rules file " + rulesFile.get() + " has changed. Reloading.");
+                load();
+            }
+        } catch (IOException ioe) {
+            logger.warning("Unable to check loyalty rules file " + rulesFile.get() + ": " + ioe.getMessage());
+        }
+    }
+
+    synchronized void load() {
+        Properties properties = new Properties();
+        long modified = -1;
+        try {
+            if (rulesFile.isPresent()) {
+                Path path = Path.of(rulesFile.get());
+                modified = Files.getLastModifiedTime(path).toMillis();
+                try (InputStream in = Files.newInputStream(path)) {
+                    properties.load(in);
+                }
+            } else {
+                try (InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(BUNDLED_RULES)) {
+                    if (in == null) throw new IOException(BUNDLED_RULES + " not found on the classpath");
+                    properties.load(in);
+                }
+            }
+            RuleSet parsed = parse(properties);
+            rules = parsed;
+            lastModified = modified;
+            logger.info("Loaded loyalty rules version " + parsed.version() + " with " + parsed.tiers().size() + " tiers");
+        } catch (IOException | RuntimeException e) {
+            // keep evaluating with whatever we had before, rather than failing every request
+            logger.warning("Unable to load loyalty rules: " + e.getClass().getName() + ": " + e.getMessage());
+            if (rules == null) throw new IllegalStateException("No loyalty rules available", e);
+        }
+    }
+
+    static RuleSet parse(Properties properties) {
+        List<Tier> tiers = new ArrayList<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(ABOVE)) {
+                String level = name.substring(ABOVE.length());
+                tiers.add(new Tier(level, Double.parseDouble(properties.getProperty(name).trim())));
+            }
+        }
+        tiers.sort(Comparator.comparingDouble(Tier::threshold).reversed()); //highest tier wins
+        String defaultLevel = properties.getProperty(DEFAULT_LEVEL, "Basic").trim();
+        String version = properties.getProperty(VERSION, "unversioned").trim();
+        return new RuleSet(version, defaultLevel, List.copyOf(tiers));
+    }
+
+    record Tier(String level, double threshold) {
+    }
+
+    record RuleSet(String version, String defaultLevel, List<Tier> tiers) {
+    }
+}
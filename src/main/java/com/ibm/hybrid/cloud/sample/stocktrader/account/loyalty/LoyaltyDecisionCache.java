@@ -0,0 +1,115 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * Learns the loyalty tiers returned by the ODM business rule so repeat trade totals don't need a network hop.
+ * <p>
+ * The rule is a table of contiguous trade total ranges, so once two totals have been seen to map to the same level,
+ * every total in between maps to that level too.  Only the lowest and highest total observed for each run of a level
+ * are kept, which means the cache converges on roughly two samples per tier no matter how many totals are looked up.
+ * The learned samples are dropped every loyalty.cache.refresh so changes to the rule at ODM are picked up.
+ */
+@ApplicationScoped
+public class LoyaltyDecisionCache {
+    private static final Logger logger = Logger.getLogger(LoyaltyDecisionCache.class.getName());
+    private static final String UNKNOWN = "Unknown";
+
+    @ConfigProperty(name = "loyalty.cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final ConcurrentSkipListMap<Double, String> samples = new ConcurrentSkipListMap<>();
+
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    void init() {
+        Tags tags = Tags.of("cache", "loyalty");
+        hits = registry.counter("cache.gets", tags.and("result", "hit"));
+        misses = registry.counter("cache.gets", tags.and("result", "miss"));
+        registry.gaugeMapSize("cache.size", tags, samples);
+    }
+
+    /**
+     * Returns the loyalty level for this trade total if it lies within a learned tier, or null if ODM must be asked
+     */
+    public String lookup(double tradeTotal) {
+        if (!enabled) return null;
+
+        Map.Entry<Double, String> floor = samples.floorEntry(tradeTotal);
+        Map.Entry<Double, String> ceiling = samples.ceilingEntry(tradeTotal);
+        if ((floor != null) && (ceiling != null) && floor.getValue().equals(ceiling.getValue())) {
+            hits.increment();
+            return floor.getValue();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Records a decision returned by ODM, dropping samples that no longer mark the edge of a tier
+     */
+    public synchronized void record(double tradeTotal, String loyalty) {
+        if (!enabled || (loyalty == null) || UNKNOWN.equalsIgnoreCase(loyalty)) return;
+
+        String previous = samples.put(tradeTotal, loyalty);
+        if ((previous != null) && !previous.equals(loyalty)) {
+            // the rule disagrees with what we learned, so it must have changed underneath us
+            logger.info("Loyalty rule changed for trade total " + tradeTotal + " from " + previous + " to " + loyalty + ". Relearning tiers.");
+            samples.clear();
+            samples.put(tradeTotal, loyalty);
+            return;
+        }
+
+        Map.Entry<Double, String> lower = samples.lowerEntry(tradeTotal);
+        Map.Entry<Double, String> higher = samples.higherEntry(tradeTotal);
+        if ((lower != null) && (higher != null) && loyalty.equals(lower.getValue()) && loyalty.equals(higher.getValue())) {
+            samples.remove(tradeTotal); //already covered by the tier's edges
+            return;
+        }
+        if ((lower != null) && loyalty.equals(lower.getValue())) {
+            Map.Entry<Double, String> lowest = samples.lowerEntry(lower.getKey());
+            if ((lowest != null) && loyalty.equals(lowest.getValue())) samples.remove(lower.getKey());
+        }
+        if ((higher != null) && loyalty.equals(higher.getValue())) {
+            Map.Entry<Double, String> highest = samples.higherEntry(higher.getKey());
+            if ((highest != null) && loyalty.equals(highest.getValue())) samples.remove(higher.getKey());
+        }
+    }
+
+    @Scheduled(every = "${loyalty.cache.refresh:15m}", delayed = "${loyalty.cache.refresh:15m}")
+    public void refresh() {
+        logger.fine("Forgetting " + samples.size() + " learned loyalty decisions");
+        samples.clear();
+    }
+}
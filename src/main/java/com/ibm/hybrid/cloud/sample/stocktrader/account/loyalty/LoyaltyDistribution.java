@@ -0,0 +1,140 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty;
+
+import com.ibm.cloud.cloudant.v1.model.PostViewOptions;
+import com.ibm.cloud.cloudant.v1.model.ViewResultRow;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDbStartupBean;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Number of accounts at each loyalty level, exported as the account.loyalty gauge (tagged by level).
+ * <p>
+ * The counts are seeded from the byLoyalty _count view when the service starts, and then kept up to date as this
+ * service creates and deletes accounts and saves changes of loyalty level, so a scrape never touches CouchDB.  Writes
+ * made by other replicas aren't seen, so the counts are re-read from the view every account.loyalty.gauges.refresh.
+ */
+@ApplicationScoped
+public class LoyaltyDistribution {
+    private static final Logger logger = Logger.getLogger(LoyaltyDistribution.class.getName());
+    private static final String UNKNOWN = "unknown";
+    private static final List<String> LEVELS = List.of("basic", "bronze", "silver", "gold", "platinum", UNKNOWN);
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final Map<String, AtomicLong> counts = new LinkedHashMap<>();
+
+    @PostConstruct
+    void init() {
+        for (String level : LEVELS) {
+            AtomicLong count = new AtomicLong();
+            counts.put(level, count);
+            Gauge.builder("account.loyalty", count, AtomicLong::get)
+                    .description("Number of accounts at each loyalty level")
+                    .tag("level", level)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Accounts for a successful write of the account.  Call with the account as it was written, before its
+     * persistedLoyalty is brought up to date (which this does).
+     */
+    public void saved(Account account, boolean created) {
+        String loyalty = account.getLoyalty();
+        if (created) {
+            count(loyalty).incrementAndGet();
+        } else if (account.getPersistedLoyalty() != null) {
+            changed(account.getPersistedLoyalty(), loyalty);
+        }
+        account.setPersistedLoyalty(loyalty);
+    }
+
+    public void changed(String oldLoyalty, String newLoyalty) {
+        if (level(oldLoyalty).equals(level(newLoyalty))) return;
+        count(oldLoyalty).decrementAndGet();
+        count(newLoyalty).incrementAndGet();
+    }
+
+    public void deleted(Account account) {
+        String loyalty = (account.getPersistedLoyalty() != null) ? account.getPersistedLoyalty() : account.getLoyalty();
+        count(loyalty).decrementAndGet();
+    }
+
+    public long getCount(String loyalty) {
+        return count(loyalty).get();
+    }
+
+    /**
+     * Replaces the counts with the ones from the byLoyalty view.  That is a single reduce query answered from the
+     * view's B-tree, not a scan of the accounts.
+     */
+    @Scheduled(every = "${account.loyalty.gauges.refresh:5m}", delayed = "${account.loyalty.gauges.refresh:5m}",
+            concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public void refresh() {
+        if (!couchDbClient.isConfigured()) return;
+
+        try {
+            PostViewOptions options = new PostViewOptions.Builder()
+                    .db(couchDbClient.getDatabaseName())
+                    .ddoc(AccountDbStartupBean.STATS_DDOC)
+                    .view(AccountDbStartupBean.LOYALTY_VIEW)
+                    .group(true)
+                    .build();
+            List<ViewResultRow> rows = dependencyMetrics.time(DependencyMetrics.COUCHDB, "loyaltyCounts", () ->
+                    couchDbClient.getService().postView(options).execute().getResult().getRows());
+
+            Map<String, Long> latest = new HashMap<>();
+            for (ViewResultRow row : rows) {
+                String level = level(AccountDocuments.string(row.getKey()));
+                latest.merge(level, (long) AccountDocuments.number(row.getValue()), Long::sum);
+            }
+            counts.forEach((level, count) -> count.set(latest.getOrDefault(level, 0L)));
+            logger.fine("Loyalty level counts: " + latest);
+        } catch (Throwable t) {
+            logger.warning("Unable to read loyalty level counts from CouchDB: " + t.getClass().getName() + ": " + t.getMessage());
+        }
+    }
+
+    private AtomicLong count(String loyalty) {
+        return counts.get(level(loyalty));
+    }
+
+    private static String level(String loyalty) {
+        String level = (loyalty != null) ? loyalty.toLowerCase(Locale.ROOT) : UNKNOWN;
+        return LEVELS.contains(level) ? level : UNKNOWN;
+    }
+}
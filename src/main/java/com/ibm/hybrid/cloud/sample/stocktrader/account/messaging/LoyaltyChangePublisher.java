@@ -0,0 +1,272 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.messaging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.jms.*;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Sends loyalty level change notifications to the LoyaltyLevelChange queue off the request thread.
+ * <p>
+ * Requests hand their message to a bounded in-memory queue and return immediately.  A single sender thread drains
+ * that queue in batches of up to messaging.publisher.batch-size, sending each batch in one transaction over a
+ * long-lived JMSContext (the connection underneath comes from the quarkus-pooled-jms pool).  If the queue is full,
+ * publish() waits up to messaging.publisher.offer-timeout before rejecting the message, so a slow or absent broker
+ * pushes back on callers without stalling them indefinitely.  Callers on an event loop thread, which mustn't wait at
+ * all, use publishNow() instead, which rejects the message straight away if the queue is full.
+ * <p>
+ * A batch that fails to send is put back at the head of the queue (as much of it as fits) and tried again after a
+ * pause, so a brief broker outage delays messages rather than losing them.  Only after messaging.publisher.max-attempts
+ * consecutive failures is the batch dropped, so a broker that stays down can't wedge the queue forever.
+ */
+@ApplicationScoped
+public class LoyaltyChangePublisher {
+    private static final Logger logger = Logger.getLogger(LoyaltyChangePublisher.class.getName());
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    @Inject
+    ConnectionFactory jmsConnectionFactory;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "mq.queue", defaultValue = "LoyaltyLevelChange")
+    String queueName;
+
+    @ConfigProperty(name = "messaging.enabled")
+    boolean useJMS;
+
+    @ConfigProperty(name = "messaging.publisher.capacity", defaultValue = "1000")
+    int capacity;
+
+    @ConfigProperty(name = "messaging.publisher.batch-size", defaultValue = "50")
+    int batchSize;
+
+    @ConfigProperty(name = "messaging.publisher.offer-timeout", defaultValue = "PT0.1S")
+    Duration offerTimeout;
+
+    @ConfigProperty(name = "messaging.publisher.max-attempts", defaultValue = "5")
+    int maxAttempts;
+
+    private BlockingDeque<String> pending;
+    private Thread sender;
+    private volatile boolean running = false;
+
+    // only ever touched while holding the lock on this publisher, since a JMSContext isn't thread-safe
+    private JMSContext jmsContext;
+    private JMSProducer producer;
+    private Queue queue;
+
+    private Counter sent;
+    private Counter rejected;
+    private Counter failed;
+    private Counter requeued;
+    private DistributionSummary batchSizes;
+    private Timer sendTimer;
+
+    void onStart(@Observes StartupEvent ev) {
+        pending = new LinkedBlockingDeque<>(capacity);
+        sent = registry.counter("loyalty.publisher.messages", "outcome", "sent");
+        rejected = registry.counter("loyalty.publisher.messages", "outcome", "rejected");
+        failed = registry.counter("loyalty.publisher.messages", "outcome", "failed");
+        requeued = registry.counter("loyalty.publisher.messages", "outcome", "requeued");
+        batchSizes = DistributionSummary.builder("loyalty.publisher.batch.size").register(registry);
+        sendTimer = Timer.builder("loyalty.publisher.send").publishPercentileHistogram().register(registry);
+        registry.gaugeCollectionSize("loyalty.publisher.queue.depth", Tags.empty(), pending);
+
+        if (!useJMS) {
+            logger.fine("Messaging is disabled, so the loyalty change publisher will not be started");
+            return;
+        }
+        running = true;
+        sender = Thread.ofPlatform().name("loyalty-change-publisher").daemon().start(this::drain);
+        logger.info("Loyalty change publisher started for queue " + queueName + " (capacity " + capacity + ", batch size " + batchSize + ")");
+    }
+
+    void onStop(@Observes ShutdownEvent ev) {
+        if (!running) return;
+        running = false;
+        sender.interrupt();
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        closeContext();
+    }
+
+    /**
+     * Hands a message off to the sender thread, waiting up to the offer timeout for room in the queue.  Returns false
+     * if it could not be queued.
+     */
+    public boolean publish(Object message) {
+        return publish(message, offerTimeout);
+    }
+
+    /**
+     * Hands a message off to the sender thread without waiting, for callers that mustn't block.  Returns false if it
+     * could not be queued.
+     */
+    public boolean publishNow(Object message) {
+        return publish(message, Duration.ZERO);
+    }
+
+    private boolean publish(Object message, Duration wait) {
+        if (!running) {
+            logger.warning("Loyalty change publisher is not running. No JMS message will be sent.");
+            return false;
+        }
+        String contents = message.toString();
+        try {
+            boolean queued = wait.isZero() ? pending.offer(contents) : pending.offer(contents, wait.toNanos(), TimeUnit.NANOSECONDS);
+            if (queued) {
+                logger.fine("Queued " + contents + " for " + queueName);
+                return true;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        rejected.increment();
+        logger.warning("Loyalty change queue is full (" + capacity + " messages). Dropping " + contents);
+        return false;
+    }
+
+    /**
+     * Sends the messages in a single JMS transaction on the calling thread, so either all of them are on the queue
+     * when this returns or none are.
+     */
+    public synchronized void sendBatch(List<String> messages) throws JMSException {
+        if (messages.isEmpty()) return;
+        if (jmsConnectionFactory == null) {
+            throw new JMSException("Unable to inject JMS ConnectionFactory - check your MQ Broker configuration");
+        }
+
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            if (jmsContext == null) {
+                logger.fine("Creating JMS context for " + queueName);
+                jmsContext = jmsConnectionFactory.createContext(JMSContext.SESSION_TRANSACTED);
+                queue = jmsContext.createQueue(queueName);
+                //"mqclient" group needs "put" authority on the queue for this to work
+                producer = jmsContext.createProducer().setDeliveryMode(DeliveryMode.PERSISTENT);
+            }
+            for (String contents : messages) {
+                producer.send(queue, jmsContext.createTextMessage(contents));
+            }
+            jmsContext.commit();
+            batchSizes.record(messages.size());
+            sent.increment(messages.size());
+            logger.fine("Sent " + messages.size() + " JMS messages to " + queueName);
+        } catch (JMSRuntimeException jmsre) {
+            closeContext(); //start over with a fresh context next time
+            throw new JMSException(jmsre.getLocalizedMessage(), jmsre.getErrorCode(), jmsre);
+        } finally {
+            sample.stop(sendTimer);
+        }
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(batchSize);
+        int attempts = 0; //consecutive failed sends of the batch at the head of the queue
+        while (running || !pending.isEmpty()) {
+            try {
+                String first = pending.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                pending.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException ie) {
+                if (!running) pending.drainTo(batch, batchSize); //shutting down, so flush what's left
+            }
+
+            if (!batch.isEmpty()) try {
+                sendBatch(batch);
+                attempts = 0;
+            } catch (Throwable t) {
+                attempts++;
+                logger.warning("Unable to send " + batch.size() + " loyalty change messages to " + queueName + " (attempt "
+                        + attempts + " of " + maxAttempts + "): " + t.getClass().getName() + ": " + t.getMessage());
+                if (t instanceof JMSException) {
+                    Exception linked = ((JMSException) t).getLinkedException(); //get the nested exception from MQ
+                    if (linked != null) logger.warning(linked.getClass().getName() + ": " + linked.getMessage());
+                }
+                if (running && (attempts < maxAttempts)) {
+                    requeue(batch);
+                    pause();
+                } else {
+                    failed.increment(batch.size());
+                    logger.warning("Dropping " + batch.size() + " loyalty change messages");
+                    attempts = 0;
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        logger.fine("Loyalty change publisher stopped");
+    }
+
+    /**
+     * Puts a batch that failed to send back at the head of the queue, in its original order.  Messages published
+     * since it was taken may have filled the queue, in which case the oldest messages of the batch are dropped.
+     */
+    private void requeue(List<String> batch) {
+        int dropped = 0;
+        for (int index = batch.size() - 1; index >= 0; index--) {
+            if (!pending.offerFirst(batch.get(index))) dropped++;
+        }
+        requeued.increment(batch.size() - dropped);
+        if (dropped > 0) {
+            failed.increment(dropped);
+            logger.warning("Loyalty change queue is full (" + capacity + " messages). Dropping " + dropped + " messages that failed to send");
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(RECONNECT_DELAY_MILLIS);
+        } catch (InterruptedException ie) {
+            // shutting down
+        }
+    }
+
+    private synchronized void closeContext() {
+        if (jmsContext != null) try {
+            jmsContext.close();
+        } catch (Throwable t) {
+            logger.fine("Error closing JMS context: " + t.getMessage());
+        }
+        jmsContext = null;
+        producer = null;
+        queue = null;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.messaging;
+
+import com.ibm.cloud.cloudant.v1.Cloudant;
+import com.ibm.cloud.cloudant.v1.model.*;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountCache;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDbStartupBean;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.metrics.DependencyMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Drains the outbox of LoyaltyChange events that AccountService stores in each Account document, sending them to
+ * the LoyaltyLevelChange queue.
+ * <p>
+ * Every messaging.outbox.interval, up to messaging.outbox.batch-size accounts with pending events are fetched via the
+ * pendingOutbox partial index, all of their events are sent in one JMS transaction, and then the outboxes are emptied
+ * with a single _bulk_docs request.  Events are only removed after the broker has accepted them, so delivery is
+ * at-least-once: if emptying an outbox fails, its events are sent again on the next pass.  Each event carries an
+ * eventId so consumers can discard the duplicates.
+ */
+@ApplicationScoped
+public class LoyaltyOutboxRelay {
+    private static final Logger logger = Logger.getLogger(LoyaltyOutboxRelay.class.getName());
+    private static final String OUTBOX = "outbox";
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    DependencyMetrics dependencyMetrics;
+
+    @Inject
+    LoyaltyChangePublisher publisher;
+
+    @Inject
+    AccountCache accountCache;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "messaging.enabled")
+    boolean useJMS;
+
+    @ConfigProperty(name = "messaging.outbox.enabled", defaultValue = "true")
+    boolean useOutbox;
+
+    @ConfigProperty(name = "messaging.outbox.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @Scheduled(every = "${messaging.outbox.interval:1s}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    void relay() {
+        if (!useJMS || !useOutbox || !couchDbClient.isConfigured()) return;
+
+        Cloudant service = couchDbClient.getService();
+        String databaseName = couchDbClient.getDatabaseName();
+
+        List<Document> documents;
+        try {
+            PostFindOptions findOptions = new PostFindOptions.Builder()
+                    .db(databaseName)
+                    .selector(Map.of(OUTBOX, Map.of("$exists", true)))
+                    .useIndex(List.of(AccountDbStartupBean.OUTBOX_INDEX_DDOC, AccountDbStartupBean.OUTBOX_INDEX))
+                    .limit(batchSize)
+                    .build();
+            documents = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findOutbox", () ->
+                    service.postFind(findOptions).execute().getResult().getDocs());
+        } catch (Throwable t) {
+            logger.warning("Unable to query CouchDB for pending loyalty change events: " + t.getClass().getName() + ": " + t.getMessage());
+            return;
+        }
+        if (documents == null || documents.isEmpty()) return;
+
+        Map<String, List<String>> sentById = new LinkedHashMap<>();
+        List<String> messages = new ArrayList<>();
+        for (Document document : documents) {
+            List<String> events = outboxOf(document);
+            if (events.isEmpty()) continue;
+            sentById.put(document.getId(), events);
+            messages.addAll(events);
+        }
+        if (messages.isEmpty()) return;
+
+        try {
+            publisher.sendBatch(messages);
+        } catch (Throwable t) {
+            registry.counter("loyalty.outbox.relayed", "outcome", "failed").increment(messages.size());
+            logger.warning("Unable to relay " + messages.size() + " loyalty change events to JMS; will retry. "
+                    + t.getClass().getName() + ": " + t.getMessage());
+            return;
+        }
+        registry.counter("loyalty.outbox.relayed", "outcome", "sent").increment(messages.size());
+        logger.fine("Relayed " + messages.size() + " loyalty change events from " + sentById.size() + " accounts");
+
+        // the events are on the queue now, so empty the outboxes (the revision in each document makes this a compare-and-swap)
+        for (Document document : documents) document.put(OUTBOX, new ArrayList<String>());
+        try {
+            PostBulkDocsOptions bulkOptions = new PostBulkDocsOptions.Builder()
+                    .db(databaseName)
+                    .bulkDocs(new BulkDocs.Builder().docs(documents).build())
+                    .build();
+            List<DocumentResult> results = dependencyMetrics.time(DependencyMetrics.COUCHDB, "saveAll", () ->
+                    service.postBulkDocs(bulkOptions).execute().getResult());
+            for (DocumentResult result : results) {
+                if (!Boolean.TRUE.equals(result.isOk())) {
+                    // the account changed since we read it (typically a new event was added), so remove just what we sent
+                    removeSent(service, databaseName, result.getId(), sentById.get(result.getId()));
+                }
+            }
+        } catch (Throwable t) {
+            logger.warning("Unable to clear relayed loyalty change events; they will be sent again. "
+                    + t.getClass().getName() + ": " + t.getMessage());
+        } finally {
+            sentById.keySet().forEach(accountCache::invalidate);
+        }
+    }
+
+    private void removeSent(Cloudant service, String databaseName, String id, List<String> sent) {
+        if (sent == null) return;
+        try {
+            Document document = dependencyMetrics.time(DependencyMetrics.COUCHDB, "findById", () ->
+                    service.getDocument(new GetDocumentOptions.Builder().db(databaseName).docId(id).build()).execute().getResult());
+            List<String> remaining = new ArrayList<>(outboxOf(document));
+            remaining.removeAll(sent);
+            document.put(OUTBOX, remaining);
+            dependencyMetrics.time(DependencyMetrics.COUCHDB, "save", () ->
+                    service.putDocument(new PutDocumentOptions.Builder().db(databaseName).docId(id).document(document).build()).execute());
+        } catch (Throwable t) {
+            registry.counter("loyalty.outbox.conflicts").increment();
+            logger.warning("Unable to clear relayed loyalty change events for account " + id + "; they will be sent again. "
+                    + t.getClass().getName() + ": " + t.getMessage());
+        }
+    }
+
+    private static List<String> outboxOf(Document document) {
+        Object outbox = document.get(OUTBOX);
+        if (!(outbox instanceof List<?> events)) return Collections.emptyList();
+
+        List<String> result = new ArrayList<>(events.size());
+        for (Object event : events) if (event != null) result.add(event.toString());
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.metrics;
+
+import com.ibm.cloud.sdk.core.service.exception.ServiceResponseException;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.WebApplicationException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the calls this service makes to the things it depends on - CouchDB (through the AccountRepository, the
+ * ReactiveAccountRepository and the Cloudant SDK requests made through CouchDbClient), ODM, Watson and the JMS
+ * broker - in a single dependency.calls timer, tagged with the dependency, the operation and the outcome (success,
+ * conflict, not_found or error).  Each timer publishes a percentile histogram, so latency SLOs can be set per
+ * dependency from /q/metrics.
+ */
+@ApplicationScoped
+public class DependencyMetrics {
+    public static final String COUCHDB = "couchdb";
+    public static final String ODM = "odm";
+    public static final String WATSON = "watson";
+    public static final String JMS = "jms";
+
+    private static final String TIMER = "dependency.calls";
+    private static final String SUCCESS = "success";
+    private static final String CONFLICT = "conflict";
+    private static final String NOT_FOUND = "not_found";
+    private static final String ERROR = "error";
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /**
+     * A call to a dependency, which may throw a checked exception of its own
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @Inject
+    MeterRegistry registry;
+
+    // Timer.builder().register() looks the timer up each time, so keep the ones already registered to hand
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public <T, E extends Exception> T time(String dependency, String operation, Call<T, E> call) throws E {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            record(dependency, operation, SUCCESS, start);
+            return result;
+        } catch (Throwable t) {
+            record(dependency, operation, outcome(t), start);
+            throw t;
+        }
+    }
+
+    /**
+     * Times each subscription to the Uni, from subscription until it emits its item or failure
+     */
+    public <T> Uni<T> time(String dependency, String operation, Uni<T> call) {
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            return call.onItemOrFailure().invoke((item, failure) ->
+                    record(dependency, operation, (failure == null) ? SUCCESS : outcome(failure), start));
+        });
+    }
+
+    private void record(String dependency, String operation, String outcome, long start) {
+        timer(dependency, operation, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String dependency, String operation, String outcome) {
+        return timers.computeIfAbsent(dependency + '|' + operation + '|' + outcome, key -> Timer.builder(TIMER)
+                .description("Calls from the account service to the services it depends on")
+                .tags("dependency", dependency, "operation", operation, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private static String outcome(Throwable t) {
+        if (CouchDbClient.isConflict(t)) return CONFLICT;
+        if ((t instanceof WebApplicationException wae) && (wae.getResponse() != null) && (wae.getResponse().getStatus() == HTTP_NOT_FOUND)) return NOT_FOUND;
+        if ((t instanceof ServiceResponseException sre) && (sre.getStatusCode() == HTTP_NOT_FOUND)) return NOT_FOUND;
+        return ERROR;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountBatch;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Feedback;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Settlement;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.SettlementResult;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonInput;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the messages in src/main/proto/account.proto straight from and to the JSON-B POJOs, using the
+ * protobuf wire format classes rather than generated message classes, so there's no second copy of each type to
+ * convert to.  The field numbers below must match the schema.
+ * <p>
+ * Each writeX method writes the fields of a message, and each sizeOf method returns how many bytes that takes (which
+ * is needed up front when the message is nested in another).  Each readX method reads fields until the end of the
+ * input, or of the current limit for a nested message, skipping any it doesn't know.
+ */
+public final class ProtobufCodecs {
+    private ProtobufCodecs() {
+    }
+
+    public static void writeAccount(CodedOutputStream out, Account account) throws IOException {
+        writeString(out, 1, account.getId());
+        writeString(out, 3, account.getOwner());
+        writeString(out, 4, account.getLoyalty());
+        writeDouble(out, 5, account.getBalance());
+        writeDouble(out, 6, account.getCommissions());
+        if (account.getFree() != 0) out.writeInt32(7, account.getFree());
+        writeString(out, 8, account.getSentiment());
+        writeDouble(out, 9, account.getNextCommission());
+        writeString(out, 10, account.getOperation());
+    }
+
+    public static int sizeOf(Account account) {
+        return stringSize(1, account.getId()) + stringSize(3, account.getOwner())
+                + stringSize(4, account.getLoyalty()) + doubleSize(5, account.getBalance())
+                + doubleSize(6, account.getCommissions())
+                + ((account.getFree() != 0) ? CodedOutputStream.computeInt32Size(7, account.getFree()) : 0)
+                + stringSize(8, account.getSentiment()) + doubleSize(9, account.getNextCommission())
+                + stringSize(10, account.getOperation());
+    }
+
+    /** AccountList */
+    public static void writeAccounts(CodedOutputStream out, List<Account> accounts) throws IOException {
+        for (Account account : accounts) {
+            if (account == null) continue;
+            out.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(sizeOf(account));
+            writeAccount(out, account);
+        }
+    }
+
+    public static void writeAccountBatch(CodedOutputStream out, AccountBatch batch) throws IOException {
+        if (batch.getIds() != null) for (String id : batch.getIds()) writeString(out, 1, id);
+        if (batch.getTotals() != null) for (Map.Entry<String, Double> total : batch.getTotals().entrySet()) {
+            if ((total.getKey() == null) || (total.getValue() == null)) continue;
+            int size = stringSize(1, total.getKey()) + doubleSize(2, total.getValue());
+            out.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED); //a map is a repeated key/value entry message
+            out.writeUInt32NoTag(size);
+            writeString(out, 1, total.getKey());
+            writeDouble(out, 2, total.getValue());
+        }
+    }
+
+    public static void writeFeedback(CodedOutputStream out, Feedback feedback) throws IOException {
+        writeString(out, 1, feedback.getMessage());
+        if (feedback.getFree() != 0) out.writeInt32(2, feedback.getFree());
+        writeString(out, 3, feedback.getSentiment());
+    }
+
+    public static void writeWatsonInput(CodedOutputStream out, WatsonInput input) throws IOException {
+        writeString(out, 1, input.getText());
+    }
+
+    /** SettlementList */
+    public static void writeSettlements(CodedOutputStream out, List<Settlement> settlements) throws IOException {
+        for (Settlement settlement : settlements) {
+            if (settlement == null) continue;
+            out.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(stringSize(1, settlement.getId()) + doubleSize(2, settlement.getTotal()));
+            writeString(out, 1, settlement.getId());
+            writeDouble(out, 2, settlement.getTotal());
+        }
+    }
+
+    /** SettlementResultList */
+    public static void writeSettlementResults(CodedOutputStream out, List<SettlementResult> results) throws IOException {
+        for (SettlementResult result : results) {
+            if (result == null) continue;
+            out.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeUInt32NoTag(sizeOf(result));
+            writeString(out, 1, result.getId());
+            writeString(out, 2, result.getStatus());
+            if (result.getTrades() != 0) out.writeInt32(3, result.getTrades());
+            writeString(out, 4, result.getMessage());
+            if (result.getAccount() != null) {
+                out.writeTag(5, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(sizeOf(result.getAccount()));
+                writeAccount(out, result.getAccount());
+            }
+        }
+    }
+
+    private static int sizeOf(SettlementResult result) {
+        int size = stringSize(1, result.getId()) + stringSize(2, result.getStatus()) + stringSize(4, result.getMessage());
+        if (result.getTrades() != 0) size += CodedOutputStream.computeInt32Size(3, result.getTrades());
+        if (result.getAccount() != null) size += messageSize(5, sizeOf(result.getAccount()));
+        return size;
+    }
+
+    /**
+     * Reads an Account.  Unlike a JSON body, a field that is missing is null or zero, rather than the default
+     * constructor's value, as protobuf can't tell a missing field from one with its default value.
+     */
+    public static Account readAccount(CodedInputStream in) throws IOException {
+        Account account = new Account(null, null, null, 0.0, 0.0, 0, null, 0.0);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1 -> account.setId(in.readStringRequireUtf8());
+                case 3 -> account.setOwner(in.readStringRequireUtf8());
+                case 4 -> account.setLoyalty(in.readStringRequireUtf8());
+                case 5 -> account.setBalance(in.readDouble());
+                case 6 -> account.setCommissions(in.readDouble());
+                case 7 -> account.setFree(in.readInt32());
+                case 8 -> account.setSentiment(in.readStringRequireUtf8());
+                case 9 -> account.setNextCommission(in.readDouble());
+                case 10 -> account.setOperation(in.readStringRequireUtf8());
+                default -> in.skipField(tag);
+            }
+        }
+        return account;
+    }
+
+    /** AccountList */
+    public static List<Account> readAccounts(CodedInputStream in) throws IOException {
+        List<Account> accounts = new ArrayList<>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == 1) {
+                int limit = in.pushLimit(in.readRawVarint32());
+                accounts.add(readAccount(in));
+                in.popLimit(limit);
+            } else {
+                in.skipField(tag);
+            }
+        }
+        return accounts;
+    }
+
+    public static AccountBatch readAccountBatch(CodedInputStream in) throws IOException {
+        List<String> ids = new ArrayList<>();
+        Map<String, Double> totals = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1 -> ids.add(in.readStringRequireUtf8());
+                case 2 -> {
+                    if (totals == null) totals = new LinkedHashMap<>();
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    String key = "";
+                    double value = 0.0;
+                    int entryTag;
+                    while ((entryTag = in.readTag()) != 0) {
+                        switch (WireFormat.getTagFieldNumber(entryTag)) {
+                            case 1 -> key = in.readStringRequireUtf8();
+                            case 2 -> value = in.readDouble();
+                            default -> in.skipField(entryTag);
+                        }
+                    }
+                    in.popLimit(limit);
+                    totals.put(key, value);
+                }
+                default -> in.skipField(tag);
+            }
+        }
+        return new AccountBatch(ids, totals);
+    }
+
+    public static Feedback readFeedback(CodedInputStream in) throws IOException {
+        Feedback feedback = new Feedback();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case 1 -> feedback.setMessage(in.readStringRequireUtf8());
+                case 2 -> feedback.setFree(in.readInt32());
+                case 3 -> feedback.setSentiment(in.readStringRequireUtf8());
+                default -> in.skipField(tag);
+            }
+        }
+        return feedback;
+    }
+
+    public static WatsonInput readWatsonInput(CodedInputStream in) throws IOException {
+        WatsonInput input = new WatsonInput();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) == 1) input.setText(in.readStringRequireUtf8());
+            else in.skipField(tag);
+        }
+        return input;
+    }
+
+    /** SettlementList */
+    public static List<Settlement> readSettlements(CodedInputStream in) throws IOException {
+        List<Settlement> settlements = new ArrayList<>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) != 1) {
+                in.skipField(tag);
+                continue;
+            }
+            int limit = in.pushLimit(in.readRawVarint32());
+            Settlement settlement = new Settlement();
+            int fieldTag;
+            while ((fieldTag = in.readTag()) != 0) {
+                switch (WireFormat.getTagFieldNumber(fieldTag)) {
+                    case 1 -> settlement.setId(in.readStringRequireUtf8());
+                    case 2 -> settlement.setTotal(in.readDouble());
+                    default -> in.skipField(fieldTag);
+                }
+            }
+            in.popLimit(limit);
+            settlements.add(settlement);
+        }
+        return settlements;
+    }
+
+    /** SettlementResultList */
+    public static List<SettlementResult> readSettlementResults(CodedInputStream in) throws IOException {
+        List<SettlementResult> results = new ArrayList<>();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) != 1) {
+                in.skipField(tag);
+                continue;
+            }
+            int limit = in.pushLimit(in.readRawVarint32());
+            SettlementResult result = new SettlementResult();
+            int fieldTag;
+            while ((fieldTag = in.readTag()) != 0) {
+                switch (WireFormat.getTagFieldNumber(fieldTag)) {
+                    case 1 -> result.setId(in.readStringRequireUtf8());
+                    case 2 -> result.setStatus(in.readStringRequireUtf8());
+                    case 3 -> result.setTrades(in.readInt32());
+                    case 4 -> result.setMessage(in.readStringRequireUtf8());
+                    case 5 -> {
+                        int accountLimit = in.pushLimit(in.readRawVarint32());
+                        result.setAccount(readAccount(in));
+                        in.popLimit(accountLimit);
+                    }
+                    default -> in.skipField(fieldTag);
+                }
+            }
+            in.popLimit(limit);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static void writeString(CodedOutputStream out, int field, String value) throws IOException {
+        if (value != null) out.writeString(field, value);
+    }
+
+    private static void writeDouble(CodedOutputStream out, int field, double value) throws IOException {
+        if (Double.doubleToRawLongBits(value) != 0L) out.writeDouble(field, value); //proto3 leaves out a default 0
+    }
+
+    private static int stringSize(int field, String value) {
+        return (value != null) ? CodedOutputStream.computeStringSize(field, value) : 0;
+    }
+
+    private static int doubleSize(int field, double value) {
+        return (Double.doubleToRawLongBits(value) != 0L) ? CodedOutputStream.computeDoubleSize(field, value) : 0;
+    }
+
+    private static int messageSize(int field, int size) {
+        return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+}
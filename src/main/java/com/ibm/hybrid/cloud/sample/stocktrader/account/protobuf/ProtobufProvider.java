@@ -0,0 +1,119 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.ibm.hybrid.cloud.sample.stocktrader.account.protobuf;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountBatch;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Feedback;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Settlement;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.SettlementResult;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonInput;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.ext.MessageBodyReader;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads and writes the application/x-protobuf bodies of the /account endpoints, as described by
+ * src/main/proto/account.proto.  A List is sent as the matching wrapper message (AccountList, SettlementList or
+ * SettlementResultList), since a protobuf body has to be a single message.  A body that can't be decoded is rejected
+ * with a 400.
+ */
+@Provider
+@Produces(ProtobufProvider.APPLICATION_PROTOBUF)
+@Consumes(ProtobufProvider.APPLICATION_PROTOBUF)
+public class ProtobufProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+    public static final String APPLICATION_PROTOBUF = "application/x-protobuf";
+
+    private static final Set<Class<?>> TYPES = Set.of(Account.class, AccountBatch.class, Feedback.class, WatsonInput.class);
+    private static final Set<Class<?>> LIST_TYPES = Set.of(Account.class, Settlement.class, SettlementResult.class);
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return TYPES.contains(type) || (listElementType(type, genericType) != null);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                           MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        try {
+            return read(type, genericType, CodedInputStream.newInstance(entityStream));
+        } catch (InvalidProtocolBufferException e) {
+            throw new BadRequestException("Malformed protobuf " + type.getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Object read(Class<?> type, Type genericType, CodedInputStream in) throws IOException {
+        if (type == Account.class) return ProtobufCodecs.readAccount(in);
+        if (type == AccountBatch.class) return ProtobufCodecs.readAccountBatch(in);
+        if (type == Feedback.class) return ProtobufCodecs.readFeedback(in);
+        if (type == WatsonInput.class) return ProtobufCodecs.readWatsonInput(in);
+
+        Class<?> elementType = listElementType(type, genericType);
+        if (elementType == Settlement.class) return ProtobufCodecs.readSettlements(in);
+        if (elementType == SettlementResult.class) return ProtobufCodecs.readSettlementResults(in);
+        return ProtobufCodecs.readAccounts(in);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return TYPES.contains(type) || (listElementType(type, genericType) != null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeTo(Object value, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        CodedOutputStream out = CodedOutputStream.newInstance(entityStream);
+        if (value instanceof Account account) ProtobufCodecs.writeAccount(out, account);
+        else if (value instanceof AccountBatch batch) ProtobufCodecs.writeAccountBatch(out, batch);
+        else if (value instanceof Feedback feedback) ProtobufCodecs.writeFeedback(out, feedback);
+        else if (value instanceof WatsonInput input) ProtobufCodecs.writeWatsonInput(out, input);
+        else {
+            Class<?> elementType = listElementType(type, genericType);
+            if (elementType == Settlement.class) ProtobufCodecs.writeSettlements(out, (List<Settlement>) value);
+            else if (elementType == SettlementResult.class) ProtobufCodecs.writeSettlementResults(out, (List<SettlementResult>) value);
+            else ProtobufCodecs.writeAccounts(out, (List<Account>) value);
+        }
+        out.flush();
+    }
+
+    /**
+     * The element type of a List of one of the LIST_TYPES, or null for anything else
+     */
+    private static Class<?> listElementType(Class<?> type, Type genericType) {
+        if (!List.class.isAssignableFrom(type) || !(genericType instanceof ParameterizedType parameterized)) return null;
+        Type[] arguments = parameterized.getActualTypeArguments();
+        if ((arguments.length != 1) || !(arguments[0] instanceof Class<?> elementType)) return null;
+        return LIST_TYPES.contains(elementType) ? elementType : null;
+    }
+}
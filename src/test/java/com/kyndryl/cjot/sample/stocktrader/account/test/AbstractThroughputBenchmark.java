@@ -0,0 +1,84 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import org.apache.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * Drives a fixed number of concurrent trades (PUT /account/{id}) through the running service and reports the
+ * throughput and latency, so the worker pool and virtual thread modes can be compared on the same machine.
+ * ThroughputTest picks the mode with the benchmark.threads system property; it is tagged "benchmark" and only runs
+ * with -Pbenchmark, which runs it once per mode.
+ */
+public abstract class AbstractThroughputBenchmark extends AbstractIntegrationTest {
+    static final int ACCOUNTS = 50;
+    static final int CLIENTS = 200;   //more than the default worker pool, so it becomes the bottleneck
+    static final int REQUESTS = 5_000;
+
+    double measureThroughput(String mode) throws InterruptedException {
+        List<Account> accounts = new ArrayList<>(ACCOUNTS);
+        for (int index = 0; index < ACCOUNTS; index++) accounts.add(new Account(faker.name().fullName()));
+        accountRepository.saveAll(accounts);
+
+        // warm up, so JIT compilation and connection setup aren't measured
+        run(accounts, REQUESTS / 10);
+
+        long start = System.nanoTime();
+        long[] latencies = run(accounts, REQUESTS);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        Arrays.sort(latencies);
+        double throughput = REQUESTS / seconds;
+        System.out.printf("[benchmark] threads=%s requests=%d clients=%d throughput=%.1f req/s p50=%.1f ms p99=%.1f ms%n",
+                mode, REQUESTS, CLIENTS, throughput, latencies[latencies.length / 2] / 1_000_000.0,
+                latencies[(int) (latencies.length * 0.99)] / 1_000_000.0);
+        return throughput;
+    }
+
+    private long[] run(List<Account> accounts, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            for (int client = 0; client < CLIENTS; client++) {
+                clients.execute(() -> {
+                    for (int request = next.getAndIncrement(); request < requests; request = next.getAndIncrement()) {
+                        String id = accounts.get(request % accounts.size()).getId();
+                        long start = System.nanoTime();
+                        int status = given().queryParam("total", 20_000).when().put("/" + id).statusCode();
+                        latencies[request] = System.nanoTime() - start;
+                        if (status != HttpStatus.SC_OK) failures.incrementAndGet();
+                    }
+                });
+            }
+        } finally {
+            clients.shutdown();
+            clients.awaitTermination(10, TimeUnit.MINUTES);
+        }
+        if (failures.get() > 0) throw new IllegalStateException(failures.get() + " of " + requests + " requests failed");
+        return latencies;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountCache;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.kyndryl.cjot.sample.stocktrader.account.test.cache.AccountCacheTestProfile;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * These test cases exercise the AccountCache directly, with a maximum size of 2 and a TTL of 1 second.
+ * They do not interact with CouchDB.
+ */
+@QuarkusTest
+@TestProfile(AccountCacheTestProfile.class)
+public class AccountCacheTest {
+
+    @Inject
+    AccountCache accountCache;
+
+    @BeforeEach
+    void clearCache() {
+        accountCache.revokeLease();
+        accountCache.clear();
+    }
+
+    @Test
+    public void testGetReturnsCopy() {
+        Account account = account("1-a");
+        accountCache.put(account);
+
+        // Changing the account after caching it, or a copy read back, doesn't change what is cached
+        account.setBalance(1.0);
+        Account cached = accountCache.get(account.getId()).orElseThrow();
+        Assertions.assertEquals(50.0, cached.getBalance());
+        cached.setBalance(2.0);
+        Assertions.assertEquals(50.0, accountCache.get(account.getId()).orElseThrow().getBalance());
+        Assertions.assertNotSame(cached, accountCache.get(account.getId()).orElseThrow());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        Account first = account("1-a");
+        Account second = account("1-b");
+        Account third = account("1-c");
+        accountCache.put(first);
+        accountCache.put(second);
+
+        // Reading the first makes the second the least recently used, so it goes when the third arrives
+        Assertions.assertTrue(accountCache.get(first.getId()).isPresent());
+        accountCache.put(third);
+
+        Assertions.assertTrue(accountCache.get(first.getId()).isPresent());
+        Assertions.assertTrue(accountCache.get(second.getId()).isEmpty());
+        Assertions.assertTrue(accountCache.get(third.getId()).isPresent());
+    }
+
+    @Test
+    public void testExpiresAfterTtl() throws InterruptedException {
+        Account account = account("1-a");
+        accountCache.put(account);
+        Assertions.assertTrue(accountCache.get(account.getId()).isPresent());
+
+        TimeUnit.MILLISECONDS.sleep(1500);
+        Assertions.assertTrue(accountCache.get(account.getId()).isEmpty());
+    }
+
+    @Test
+    public void testLeaseStopsExpiry() throws InterruptedException {
+        Account account = account("1-a");
+        accountCache.put(account);
+        accountCache.renewLease(System.nanoTime() + TimeUnit.SECONDS.toNanos(30));
+
+        TimeUnit.MILLISECONDS.sleep(1500);
+        Assertions.assertTrue(accountCache.get(account.getId()).isPresent());
+
+        accountCache.revokeLease();
+        Assertions.assertTrue(accountCache.get(account.getId()).isEmpty());
+    }
+
+    @Test
+    public void testNewerRevisionKept() {
+        Account newer = account("3-c");
+        newer.setBalance(30.0);
+        Account older = new Account(newer);
+        older.setRev("2-b");
+        older.setBalance(20.0);
+
+        // A slow read of an older revision doesn't replace the newer one
+        accountCache.put(newer);
+        accountCache.put(older);
+        Account cached = accountCache.get(newer.getId()).orElseThrow();
+        Assertions.assertEquals("3-c", cached.getRev());
+        Assertions.assertEquals(30.0, cached.getBalance());
+
+        // but a newer one does
+        Account newest = new Account(newer);
+        newest.setRev("4-d");
+        newest.setBalance(40.0);
+        accountCache.put(newest);
+        Assertions.assertEquals(40.0, accountCache.get(newer.getId()).orElseThrow().getBalance());
+    }
+
+    @Test
+    public void testInvalidate() {
+        Account account = account("1-a");
+        accountCache.put(account);
+        accountCache.invalidate(account.getId());
+        Assertions.assertTrue(accountCache.get(account.getId()).isEmpty());
+    }
+
+    @Test
+    public void testReadRacingWriteNotCached() {
+        Account old = account("1-a");
+        accountCache.put(old);
+
+        // A read starts, then a write invalidates the account before the read gets to cache what it saw
+        long stamp = accountCache.stamp();
+        accountCache.invalidate(old.getId());
+        accountCache.put(old, stamp);
+        Assertions.assertTrue(accountCache.get(old.getId()).isEmpty());
+
+        // a read that starts after the write is cached as usual
+        Account fresh = new Account(old);
+        fresh.setRev("2-b");
+        accountCache.put(fresh, accountCache.stamp());
+        Assertions.assertEquals("2-b", accountCache.get(old.getId()).orElseThrow().getRev());
+    }
+
+    @Test
+    public void testForgottenTombstonesStillRefuseOlderReads() {
+        Account first = account("1-a");
+        long stamp = accountCache.stamp();
+
+        // with room for two tombstones, the third invalidation forgets the first one
+        accountCache.invalidate(first.getId());
+        accountCache.invalidate(account("1-b").getId());
+        accountCache.invalidate(account("1-c").getId());
+
+        accountCache.put(first, stamp);
+        Assertions.assertTrue(accountCache.get(first.getId()).isEmpty());
+        accountCache.put(first);
+        Assertions.assertTrue(accountCache.get(first.getId()).isPresent());
+    }
+
+    private static Account account(String rev) {
+        Account account = new Account("Someone");
+        account.setRev(rev);
+        return account;
+    }
+}
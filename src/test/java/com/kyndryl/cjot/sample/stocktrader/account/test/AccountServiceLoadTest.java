@@ -0,0 +1,222 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonInput;
+import com.kyndryl.cjot.sample.stocktrader.account.test.amqp.AMQPTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.load.EndpointStats;
+import com.kyndryl.cjot.sample.stocktrader.account.test.load.LoadTestProfile;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import io.restassured.response.Response;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * Drives a mix of create, get, update (trade) and feedback requests through the service, backed by the CouchDB and
+ * AMQP test containers, and records a latency histogram and the throughput of each endpoint.  The results are
+ * written to target/load-report.properties and compared with a baseline; the test fails if any endpoint's throughput
+ * drops, or its p99 latency grows, by more than load.tolerance.  The checked-in baseline
+ * (src/test/resources/load-baseline.properties) only holds conservative floors and ceilings, so CI should record a
+ * baseline on its own machine and point load.baseline at it.
+ * Tagged "load", so it only runs with -Pload.  The shape of the run can be changed with system properties:
+ * <ul>
+ *     <li>load.clients - concurrent clients (default 32)</li>
+ *     <li>load.requests - requests in the measured run (default 4000)</li>
+ *     <li>load.mix - relative weights of each endpoint (default create=1,get=5,update=3,feedback=1)</li>
+ *     <li>load.tolerance - how far a number may regress before the test fails (default 0.25, meaning 25%)</li>
+ *     <li>load.baseline - the baseline to compare with (default src/test/resources/load-baseline.properties)</li>
+ *     <li>load.baseline.update - set to true to record this run's numbers as a baseline (in load.baseline.record,
+ *     default target/load-baseline.properties) instead of comparing</li>
+ * </ul>
+ */
+@QuarkusTest
+@QuarkusTestResource(value = CouchDBTestResource.class, restrictToAnnotatedClass = true, parallel = true)
+@QuarkusTestResource(value = AMQPTestResource.class, restrictToAnnotatedClass = true, parallel = true)
+@TestHTTPEndpoint(AccountService.class)
+@TestProfile(LoadTestProfile.class)
+@Tag("load")
+public class AccountServiceLoadTest extends AbstractIntegrationTest {
+    static final String CREATE = "create";
+    static final String GET = "get";
+    static final String UPDATE = "update";
+    static final String FEEDBACK = "feedback";
+
+    static final int ACCOUNTS = 100;
+    static final Path BASELINE = Path.of(System.getProperty("load.baseline", "src/test/resources/load-baseline.properties"));
+    static final Path RECORDED = Path.of(System.getProperty("load.baseline.record", "target/load-baseline.properties"));
+    static final Path REPORT = Path.of(System.getProperty("load.report", "target/load-report.properties"));
+
+    final int clients = Integer.getInteger("load.clients", 32);
+    final int requests = Integer.getInteger("load.requests", 4_000);
+    final double tolerance = Double.parseDouble(System.getProperty("load.tolerance", "0.25"));
+    final List<String> mix = parseMix(System.getProperty("load.mix", "create=1,get=5,update=3,feedback=1"));
+
+    @Test
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    public void load_mixedTraffic() throws InterruptedException, IOException {
+        List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        List<Account> accounts = new ArrayList<>(ACCOUNTS);
+        for (int index = 0; index < ACCOUNTS; index++) accounts.add(new Account(faker.name().fullName()));
+        accountRepository.saveAll(accounts).forEach(account -> ids.add(account.getId()));
+
+        // warm up, so JIT compilation and connection setup aren't measured
+        run(ids, Math.max(requests / 10, mix.size()), new LinkedHashMap<>());
+
+        Map<String, EndpointStats> stats = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        run(ids, requests, stats);
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        Properties report = new Properties();
+        report.setProperty("total.throughput", String.format(Locale.ROOT, "%.2f", requests / seconds));
+        System.out.printf(Locale.ROOT, "[load] clients=%d requests=%d seconds=%.1f throughput=%.1f req/s%n", clients, requests, seconds, requests / seconds);
+        for (EndpointStats endpoint : stats.values()) {
+            endpoint.store(report, seconds);
+            System.out.printf(Locale.ROOT, "[load] %s throughput=%.1f req/s%n", endpoint, endpoint.getThroughput(seconds));
+        }
+        write(report, REPORT, "Load test results");
+
+        for (EndpointStats endpoint : stats.values()) {
+            Assertions.assertEquals(0, endpoint.getErrors(), endpoint.getErrors() + " " + endpoint.getName() + " requests failed");
+        }
+
+        if (Boolean.getBoolean("load.baseline.update")) {
+            write(report, RECORDED, "Load test baseline - recorded with -Pload -Dload.baseline.update=true, clients=" + clients + " requests=" + requests);
+            System.out.println("[load] Recorded a baseline in " + RECORDED + "; pass its location as -Dload.baseline to check against it");
+        } else {
+            assertNoRegression(report);
+        }
+    }
+
+    private void run(List<String> ids, int count, Map<String, EndpointStats> stats) throws InterruptedException {
+        for (String endpoint : new LinkedHashSet<>(mix)) stats.put(endpoint, new EndpointStats(endpoint));
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            for (int client = 0; client < clients; client++) {
+                pool.execute(() -> {
+                    for (int request = next.getAndIncrement(); request < count; request = next.getAndIncrement()) {
+                        String endpoint = mix.get(request % mix.size());
+                        long start = System.nanoTime();
+                        boolean ok = send(endpoint, ids);
+                        stats.get(endpoint).record(System.nanoTime() - start, ok);
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.MINUTES);
+        }
+    }
+
+    private boolean send(String endpoint, List<String> ids) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String id = ids.get(random.nextInt(ids.size()));
+        double total = random.nextDouble(1_500_000);
+
+        switch (endpoint) {
+            case CREATE:
+                Response created = given().accept(ContentType.JSON).when().post("/load-" + UUID.randomUUID());
+                if (created.statusCode() != HttpStatus.SC_OK) return false;
+                ids.add(created.path("id"));
+                return true;
+            case GET:
+                return given().accept(ContentType.JSON).queryParam("total", total).when().get("/" + id).statusCode() == HttpStatus.SC_OK;
+            case UPDATE:
+                return given().accept(ContentType.JSON).queryParam("total", total).when().put("/" + id).statusCode() == HttpStatus.SC_OK;
+            case FEEDBACK:
+                return given().contentType(ContentType.JSON).accept(ContentType.JSON).body(new WatsonInput("I love this app!"))
+                        .when().post("/" + id + "/feedback").statusCode() == HttpStatus.SC_OK;
+            default:
+                throw new IllegalArgumentException("Unknown endpoint in load.mix: " + endpoint);
+        }
+    }
+
+    /**
+     * Fails if any throughput in the report is below its baseline, or any p99 above it, by more than the tolerance.
+     * Numbers that have no baseline yet are reported but not checked.
+     */
+    private void assertNoRegression(Properties report) throws IOException {
+        if (!Files.exists(BASELINE)) {
+            Assertions.fail("No load baseline at " + BASELINE + "; run with -Dload.baseline.update=true to record one");
+        }
+        Properties baseline = new Properties();
+        try (Reader reader = Files.newBufferedReader(BASELINE)) {
+            baseline.load(reader);
+        }
+
+        List<String> regressions = new ArrayList<>();
+        for (String key : new TreeSet<>(report.stringPropertyNames())) {
+            String expected = baseline.getProperty(key);
+            if (expected == null) continue;
+
+            double actual = Double.parseDouble(report.getProperty(key));
+            double limit = Double.parseDouble(expected);
+            if (key.endsWith(".throughput") && actual < limit * (1 - tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s %.2f req/s is below the baseline of %.2f", key, actual, limit));
+            } else if (key.endsWith(".p99") && actual > limit * (1 + tolerance)) {
+                regressions.add(String.format(Locale.ROOT, "%s %.2f ms is above the baseline of %.2f", key, actual, limit));
+            }
+        }
+        Assertions.assertTrue(regressions.isEmpty(), "Regressed by more than " + (int) (tolerance * 100) + "%: " + regressions);
+    }
+
+    private static void write(Properties properties, Path path, String comment) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            properties.store(writer, comment);
+        }
+    }
+
+    /**
+     * Expands "create=1,get=5" into a cycle of endpoint names, so that request n goes to the endpoint at n % size
+     */
+    static List<String> parseMix(String mix) {
+        List<String> cycle = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] weighted = part.trim().split("=");
+            int weight = (weighted.length > 1) ? Integer.parseInt(weighted[1].trim()) : 1;
+            for (int index = 0; index < weight; index++) cycle.add(weighted[0].trim());
+        }
+        if (cycle.isEmpty()) throw new IllegalArgumentException("load.mix is empty");
+        return cycle;
+    }
+}
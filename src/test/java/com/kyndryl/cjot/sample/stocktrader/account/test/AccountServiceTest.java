@@ -15,9 +15,22 @@
  */
 package com.kyndryl.cjot.sample.stocktrader.account.test;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.OwnerIndex;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountBatch;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountPage;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.AccountStats;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyStats;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Settlement;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.SettlementResult;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LoyaltyDistribution;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.protobuf.ProtobufCodecs;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.protobuf.ProtobufProvider;
 import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.test.common.WithTestResource;
 import io.quarkus.test.common.http.TestHTTPEndpoint;
 import io.quarkus.test.junit.QuarkusTest;
@@ -28,14 +41,21 @@ import io.quarkus.test.security.oidc.OidcSecurity;
 import io.quarkus.test.security.oidc.UserInfo;
 import io.restassured.common.mapper.TypeRef;
 import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
 
 
 /**
@@ -46,6 +66,15 @@ import static org.hamcrest.Matchers.hasSize;
 @TestHTTPEndpoint(AccountService.class)
 public class AccountServiceTest extends AbstractIntegrationTest {
 
+    @Inject
+    LoyaltyDistribution loyaltyDistribution;
+
+    @Inject
+    OwnerIndex ownerIndex;
+
+    @Inject
+    MeterRegistry registry;
+
     @Test
     // Set up the JWT/Security items
     @TestSecurity(user = "stock", roles = "StockTrader")
@@ -133,6 +162,203 @@ public class AccountServiceTest extends AbstractIntegrationTest {
 
     }
 
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testGetAccountsBatchEndpoint() {
+
+        List<Account> accounts = Arrays.asList(
+                new Account(faker.name().fullName()),
+                new Account(faker.name().fullName()),
+                new Account(faker.name().fullName()));
+
+        accountRepository.saveAll(accounts);
+
+        List<String> ids = new ArrayList<>();
+        accounts.forEach(account -> ids.add(account.getId()));
+        ids.add(UUID.randomUUID().toString()); // an id that doesn't exist is left out of the results
+
+        List<Account> persistedAccounts =
+                given()
+                        .contentType(ContentType.JSON)
+                        .accept(ContentType.JSON)
+                        .body(new AccountBatch(ids))
+                        .when().post("/batch")
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .body("$", hasSize(3))  // Check we got the 3 that exist
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        // Results come back in the order the ids were asked for
+        Assertions.assertIterableEquals(accounts, persistedAccounts);
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testGetAccountsBatchProtobuf() throws IOException {
+
+        List<Account> accounts = Arrays.asList(
+                new Account(faker.name().fullName()),
+                new Account(faker.name().fullName()));
+
+        accountRepository.saveAll(accounts);
+
+        List<String> ids = new ArrayList<>();
+        accounts.forEach(account -> ids.add(account.getId()));
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(request);
+        ProtobufCodecs.writeAccountBatch(out, new AccountBatch(ids));
+        out.flush();
+
+        byte[] response =
+                given()
+                        .contentType(ProtobufProvider.APPLICATION_PROTOBUF)
+                        .accept(ProtobufProvider.APPLICATION_PROTOBUF)
+                        .body(request.toByteArray())
+                        .when().post("/batch")
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .contentType(ProtobufProvider.APPLICATION_PROTOBUF)
+                        .and()
+                        .extract().asByteArray();
+
+        // The same accounts as the JSON endpoint returns, decoded from an AccountList message
+        List<Account> persistedAccounts = ProtobufCodecs.readAccounts(CodedInputStream.newInstance(response));
+        Assertions.assertIterableEquals(accounts, persistedAccounts);
+
+        // A single account, negotiated by the Accept header alone
+        byte[] single =
+                given()
+                        .accept(ProtobufProvider.APPLICATION_PROTOBUF)
+                        .when().get("/" + accounts.get(0).getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK)
+                        .contentType(ProtobufProvider.APPLICATION_PROTOBUF)
+                        .and()
+                        .extract().asByteArray();
+        Assertions.assertEquals(accounts.get(0), ProtobufCodecs.readAccount(CodedInputStream.newInstance(single)));
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testMalformedProtobufRejected() {
+
+        // A length-delimited field whose length runs past the end of the body
+        byte[] truncated = {0x0a, 0x10, 'a', 'b', 'c'};
+
+        given()
+                .contentType(ProtobufProvider.APPLICATION_PROTOBUF)
+                .accept(ProtobufProvider.APPLICATION_PROTOBUF)
+                .body(truncated)
+                .when().post("/batch")
+                .then()
+                .statusCode(HttpStatus.SC_BAD_REQUEST); // Check we got a 400, not a 500
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testExportAccountsEndpoint() {
+
+        List<Account> accounts = Arrays.asList(
+                new Account(faker.name().fullName()),
+                new Account(faker.name().fullName()),
+                new Account(faker.name().fullName()));
+
+        accountRepository.saveAll(accounts);
+
+        String export =
+                given()
+                        .accept("application/x-ndjson")
+                        .when().get("/export")
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().asString();
+
+        // One account per line, each of them one we created
+        List<String> lines = export.lines().filter(line -> !line.isBlank()).toList();
+        Assertions.assertEquals(accounts.size(), lines.size());
+        for (Account account : accounts) {
+            Assertions.assertTrue(lines.stream().anyMatch(line -> line.contains(account.getId())), "Missing " + account.getId());
+        }
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockViewer")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testAccountStatsEndpoint() {
+
+        accountRepository.saveAll(Arrays.asList(
+                new Account(faker.name().fullName(), "Basic", 50.0, 0.0, 0, "Unknown", 9.99),
+                new Account(faker.name().fullName(), "Basic", 30.0, 20.0, 1, "Unknown", 0.0),
+                new Account(faker.name().fullName(), "Gold", 10.0, 40.0, 2, "Unknown", 6.99)));
+
+        AccountStats stats =
+                given()
+                        .accept(ContentType.JSON)
+                        .when().get("/stats")
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .extract().as(AccountStats.class);
+
+        Assertions.assertEquals(3, stats.getTotal().getAccounts());
+        Assertions.assertEquals(90.0, stats.getTotal().getBalance(), 0.001);
+        Assertions.assertEquals(60.0, stats.getTotal().getCommissions(), 0.001);
+        Assertions.assertEquals(3, stats.getTotal().getFreeTrades());
+
+        LoyaltyStats basic = stats.getByLoyalty().get("Basic");
+        Assertions.assertEquals(2, basic.getAccounts());
+        Assertions.assertEquals(30.0, basic.getMinBalance(), 0.001);
+        Assertions.assertEquals(50.0, basic.getMaxBalance(), 0.001);
+        Assertions.assertEquals(40.0, stats.getByLoyalty().get("Gold").getCommissions(), 0.001);
+    }
+
     @Test
     // Set up the JWT/Security items
     @TestSecurity(user = "stock", roles = "StockTrader")
@@ -172,6 +398,114 @@ public class AccountServiceTest extends AbstractIntegrationTest {
 
     }
 
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testCreateAccountStreamingJson() {
+
+        // An owner that needs escaping, written by the StreamingJsonProvider rather than JSON-B
+        String owner = "Zo\u00eb \"Bud\" O'Brien " + faker.number().digits(6);
+
+        given()
+                .accept(ContentType.JSON)
+                .when().post("/" + owner)
+                .then()
+                .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                .contentType(ContentType.JSON)
+                .body("owner", equalTo(owner))
+                .body("id", equalTo(OwnerIndex.idFor(owner)))
+                .body("loyalty", equalTo("Basic"))
+                .body("balance", equalTo(50.0f))
+                .body("free", equalTo(0))
+                .body("$", not(hasKey("rev"))) // CouchDB bookkeeping stays out of the response, as with JSON-B
+                .body("$", not(hasKey("outbox")))
+                .body("$", not(hasKey("ledgerApplied")))
+                .body("$", not(hasKey("persistedLoyalty")));
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testMalformedJsonRejected() {
+
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+
+        // Not well-formed, so the StreamingJsonProvider's parser gives up part way through
+        given()
+                .contentType(ContentType.JSON)
+                .accept(ContentType.JSON)
+                .body("{\"text\": \"I love this app")
+                .when().post("/" + account.getId() + "/feedback")
+                .then()
+                .statusCode(HttpStatus.SC_BAD_REQUEST); // Check we got a 400, not a 500
+
+        // Well-formed, but an array where the codec expects an object
+        given()
+                .contentType(ContentType.JSON)
+                .accept(ContentType.JSON)
+                .body("[\"I love this app\"]")
+                .when().post("/" + account.getId() + "/feedback")
+                .then()
+                .statusCode(HttpStatus.SC_BAD_REQUEST);
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testLoyaltyGauges() {
+
+        long basic = loyaltyDistribution.getCount("Basic");
+
+        String id =
+                given()
+                        .accept(ContentType.JSON)
+                        .when().post("/" + faker.name().fullName())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .extract().path("id");
+
+        // A new account is counted as Basic straight away, without re-reading CouchDB
+        Assertions.assertEquals(basic + 1, loyaltyDistribution.getCount("Basic"));
+        given()
+                .basePath("/")
+                .when().get("/q/metrics")
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .body(containsString("account_loyalty{level=\"basic\""));
+
+        given()
+                .accept(ContentType.JSON)
+                .when().delete("/" + id)
+                .then()
+                .statusCode(HttpStatus.SC_OK);
+
+        Assertions.assertEquals(basic, loyaltyDistribution.getCount("Basic"));
+    }
+
     @Test
     // Set up the JWT/Security items
     @TestSecurity(user = "stock", roles = "StockTrader")
@@ -209,6 +543,88 @@ public class AccountServiceTest extends AbstractIntegrationTest {
                 .statusCode(HttpStatus.SC_NO_CONTENT); // Check we got a 204 <- Not created
     }
 
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testCreateDuplicateAccountMissingFromOwnerIndex() {
+
+        Account account = new Account(faker.name().fullName());
+
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .when().post("/" + account.getOwner())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        // New accounts get an id derived from the owner, and are added to the index
+        Assertions.assertEquals(OwnerIndex.idFor(account.getOwner()), persistedAccount.getId());
+        Assertions.assertTrue(ownerIndex.contains(account.getOwner()));
+
+        // Forget the owner, as if another replica had created the account, so only CouchDB can refuse the repeat
+        ownerIndex.remove(persistedAccount.getId());
+        given()
+                .accept(ContentType.JSON)
+                .when().post("/" + account.getOwner())
+                .then()
+                .statusCode(HttpStatus.SC_NO_CONTENT); // Check we got a 204 <- Not created
+
+        // The 409 from CouchDB puts the owner back in the index
+        Assertions.assertTrue(ownerIndex.contains(account.getOwner()));
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testCreateAccountAfterDirectDelete() {
+
+        String owner = faker.name().fullName();
+
+        String id =
+                given()
+                        .accept(ContentType.JSON)
+                        .when().post("/" + owner)
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .extract().path("id");
+
+        // Delete the document behind the service's back; with the changes feed off, the owner index still has it
+        accountRepository.deleteById(id);
+        Assertions.assertTrue(accountRepository.findById(id).isEmpty());
+        Assertions.assertTrue(ownerIndex.contains(owner));
+
+        // The stale index entry mustn't stop the owner opening a new account
+        given()
+                .accept(ContentType.JSON)
+                .when().post("/" + owner)
+                .then()
+                .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                .body("owner", equalTo(owner))
+                .body("id", equalTo(OwnerIndex.idFor(owner)));
+
+        Assertions.assertTrue(ownerIndex.contains(owner));
+        Assertions.assertTrue(accountRepository.findById(id).isPresent());
+    }
+
     @Test
     // Set up the JWT/Security items
     @TestSecurity(user = "stock", roles = "StockTrader")
@@ -249,6 +665,143 @@ public class AccountServiceTest extends AbstractIntegrationTest {
         Assertions.assertEquals(40.01, persistedAccount.getBalance());
     }
 
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testUpdateAccountRetriedAfterConflict() {
+
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+
+        // Reading the account through the service caches it at its current _rev
+        given()
+                .accept(ContentType.JSON)
+                .when().get("/" + account.getId())
+                .then()
+                .statusCode(HttpStatus.SC_OK);
+
+        // Change the document behind the service's back, so the cached copy's _rev is out of date
+        Account changed = accountRepository.findById(account.getId()).orElseThrow();
+        changed.setSentiment("Joy");
+        accountRepository.save(changed);
+
+        double conflicts = registry.counter("account.update.conflicts").count();
+
+        // The first save is refused with a 409, and the trade is applied again to a fresh read
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .queryParam("total", 5000)
+                        .when().put("/" + account.getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        Assertions.assertEquals(conflicts + 1, registry.counter("account.update.conflicts").count());
+        Assertions.assertEquals("Joy", persistedAccount.getSentiment());
+
+        // charged exactly once, on top of the other write
+        Account stored = accountRepository.findById(account.getId()).orElseThrow();
+        Assertions.assertEquals("Joy", stored.getSentiment());
+        Assertions.assertEquals(9.99, stored.getCommissions());
+        Assertions.assertEquals(40.01, stored.getBalance());
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testDependencyMetricsEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        accountRepository.save(account);
+
+        given()
+                .accept(ContentType.JSON)
+                .queryParam("total", 5000)
+                .when().put("/" + account.getId())
+                .then()
+                .statusCode(HttpStatus.SC_OK); // Check we got a 200
+
+        // The save made by the update is timed, tagged by dependency and outcome, and exported with its histogram
+        given()
+                .basePath("/")
+                .when().get("/q/metrics")
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .body(containsString("dependency_calls_seconds_count{dependency=\"couchdb\",operation=\"save\",outcome=\"success\""))
+                .body(containsString("dependency_calls_seconds_bucket{dependency=\"couchdb\",operation=\"save\",outcome=\"success\""));
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testSettlementEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        accountRepository.save(account);
+
+        String unknownId = UUID.randomUUID().toString();
+        List<Settlement> settlements = Arrays.asList(
+                new Settlement(account.getId(), 5000),
+                new Settlement(unknownId, 5000),
+                new Settlement(account.getId(), 5000));
+
+        List<SettlementResult> results =
+                given()
+                        .contentType(ContentType.JSON)
+                        .accept(ContentType.JSON)
+                        .body(settlements)
+                        .when().post("/settlement")
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .body("$", hasSize(2))  // One result per account
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        SettlementResult settled = results.get(0);
+        Assertions.assertEquals(account.getId(), settled.getId());
+        Assertions.assertEquals(SettlementResult.OK, settled.getStatus());
+        Assertions.assertEquals(2, settled.getTrades());
+        Assertions.assertEquals("Basic", settled.getAccount().getLoyalty());
+        Assertions.assertEquals(19.98, settled.getAccount().getCommissions(), 0.001);
+        Assertions.assertEquals(30.02, settled.getAccount().getBalance(), 0.001);
+
+        Assertions.assertEquals(unknownId, results.get(1).getId());
+        Assertions.assertEquals(SettlementResult.NOT_FOUND, results.get(1).getStatus());
+
+        // The settled values were persisted
+        Account persistedAccount = accountRepository.findById(account.getId()).orElseThrow();
+        Assertions.assertEquals(19.98, persistedAccount.getCommissions(), 0.001);
+    }
+
     @Test
     // Set up the JWT/Security items
     @TestSecurity(user = "stock", roles = "StockTrader")
@@ -719,4 +1272,49 @@ public class AccountServiceTest extends AbstractIntegrationTest {
         Assertions.assertTrue(pageOfAccounts.get(0).equals(savedAccounts.get(10)));
         Assertions.assertTrue(pageOfAccounts.get(1).equals(savedAccounts.get(11)));
     }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void testGetPagesByCursor() {
+        List<Account> accounts = new ArrayList<>();
+        for (int index = 0; index < 12; index++) accounts.add(new Account(faker.name().fullName()));
+
+        List<Account> savedAccounts = new ArrayList<>();
+        accountRepository.saveAll(accounts).forEach(savedAccounts::add);
+        savedAccounts.sort(Comparator.comparing(Account::getOwner));
+
+        // Follow the next tokens until the last page: 5 + 5 + 2
+        List<Account> pagedAccounts = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String next = null;
+        do {
+            var request = given()
+                    .accept(ContentType.JSON)
+                    .queryParam("pageSize", 5);
+            if (next != null) request.queryParam("next", next);
+
+            AccountPage page = request
+                    .when().get("/page")
+                    .then()
+                    .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                    .and()
+                    .extract().as(AccountPage.class);
+
+            pagedAccounts.addAll(page.getAccounts());
+            pageSizes.add(page.getAccounts().size());
+            next = page.getNext();
+        } while (next != null && pageSizes.size() < 10);
+
+        Assertions.assertEquals(List.of(5, 5, 2), pageSizes);
+        Assertions.assertIterableEquals(savedAccounts, pagedAccounts);
+    }
 }
@@ -17,6 +17,8 @@ package com.kyndryl.cjot.sample.stocktrader.account.test;
 
 import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
 import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyChange;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.messaging.LoyaltyChangePublisher;
 import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
 import com.kyndryl.cjot.sample.stocktrader.account.test.jms.BrokenJmsTestProfile;
 import io.quarkus.test.common.WithTestResource;
@@ -29,11 +31,16 @@ import io.quarkus.test.security.oidc.ConfigMetadata;
 import io.quarkus.test.security.oidc.OidcSecurity;
 import io.quarkus.test.security.oidc.UserInfo;
 import io.restassured.common.mapper.TypeRef;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
 import org.apache.http.HttpStatus;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
 import static io.restassured.RestAssured.given;
 
 /**
@@ -45,6 +52,12 @@ import static io.restassured.RestAssured.given;
 @TestProfile(BrokenJmsTestProfile.class)
 public class BrokenJmsServiceTest extends AbstractIntegrationTest {
 
+    @Inject
+    LoyaltyChangePublisher publisher;
+
+    @Inject
+    MeterRegistry registry;
+
     @Test
     // Set up the JWT/Security items
     @TestSecurity(user = "stock", roles = "StockTrader")
@@ -85,4 +98,43 @@ public class BrokenJmsServiceTest extends AbstractIntegrationTest {
         Assertions.assertEquals(5.99, persistedAccount.getCommissions());
         Assertions.assertEquals(44.01, persistedAccount.getBalance());
     }
+
+    @Test
+    public void testPublisherSurvivesSendFailure() throws InterruptedException {
+        double requeued = messages("requeued");
+        double failed = messages("failed");
+
+        Assertions.assertTrue(publisher.publish(new LoyaltyChange(faker.name().fullName(), "Basic", "Bronze")));
+
+        // the broker is unreachable, so the message is retried until messaging.publisher.max-attempts (3) is reached and only then dropped
+        await(() -> messages("failed") > failed);
+        Assertions.assertEquals(failed + 1, messages("failed"));
+        Assertions.assertTrue(messages("requeued") >= requeued + 2, "the message was not retried before being dropped");
+
+        // and the sender thread is still there to take the next one
+        double failedAgain = messages("failed");
+        Assertions.assertTrue(publisher.publish(new LoyaltyChange(faker.name().fullName(), "Bronze", "Silver")));
+        await(() -> messages("failed") > failedAgain);
+    }
+
+    @Test
+    public void testPublishNowUsesSameQueue() throws InterruptedException {
+        double failed = messages("failed");
+
+        // publishNow doesn't wait for room, but there is plenty here, so the message is queued and retried like any other
+        Assertions.assertTrue(publisher.publishNow(new LoyaltyChange(faker.name().fullName(), "Silver", "Gold")));
+        await(() -> messages("failed") > failed);
+    }
+
+    private double messages(String outcome) {
+        return registry.counter("loyalty.publisher.messages", "outcome", outcome).count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "timed out waiting for the loyalty change publisher");
+            Thread.sleep(100);
+        }
+    }
 }
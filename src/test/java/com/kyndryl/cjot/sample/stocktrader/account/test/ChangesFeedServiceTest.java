@@ -0,0 +1,85 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.kyndryl.cjot.sample.stocktrader.account.test.changes.ChangesFeedTestProfile;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * These test cases follow the CouchDB _changes feed (account.changes.enabled=true), and check that writes made
+ * behind the service's back - as another replica would - reach the cached accounts
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestHTTPEndpoint(AccountService.class)
+@TestProfile(ChangesFeedTestProfile.class)
+public class ChangesFeedServiceTest extends AbstractIntegrationTest {
+
+    @Test
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    public void changes_testOtherReplicaWriteReachesCache() throws InterruptedException {
+
+        Account account = new Account(faker.name().fullName());
+        accountRepository.save(account);
+
+        // Read it once, so it is cached for the next ten minutes
+        Assertions.assertEquals(50.0, balanceOf(account.getId()));
+
+        // Change the document directly, the way another replica of the service would
+        Account changed = accountRepository.findById(account.getId()).orElseThrow();
+        changed.setBalance(123.45);
+        accountRepository.save(changed);
+
+        double balance = 0.0;
+        for (int attempt = 0; attempt < 50 && balance != 123.45; attempt++) {
+            TimeUnit.MILLISECONDS.sleep(200);
+            balance = balanceOf(account.getId());
+        }
+        Assertions.assertEquals(123.45, balance);
+
+        given()
+                .basePath("/")
+                .when().get("/q/metrics")
+                .then()
+                .statusCode(HttpStatus.SC_OK)
+                .body(containsString("account_changes_lag_seconds"));
+    }
+
+    private double balanceOf(String id) {
+        return given()
+                .accept(ContentType.JSON)
+                .when().get("/" + id)
+                .then()
+                .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                .extract().jsonPath().getDouble("balance");
+    }
+}
@@ -0,0 +1,300 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.cloud.cloudant.v1.Cloudant;
+import com.ibm.cloud.cloudant.v1.model.*;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.ledger.CommissionLedger;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.ledger.LedgerTestProfile;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.quarkus.test.security.oidc.Claim;
+import io.quarkus.test.security.oidc.ConfigMetadata;
+import io.quarkus.test.security.oidc.OidcSecurity;
+import io.quarkus.test.security.oidc.UserInfo;
+import io.restassured.common.mapper.TypeRef;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * These test cases interact with CouchDB with the CommissionLedger enabled.  The ledger is never flushed on a
+ * schedule, only when a test calls flush(), so each test can look at the account before and after.
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestHTTPEndpoint(AccountService.class)
+@TestProfile(LedgerTestProfile.class)
+public class CommissionLedgerTest extends AbstractIntegrationTest {
+
+    @Inject
+    CommissionLedger ledger;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    MeterRegistry registry;
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void ledger_testTradesOverlaidUntilFlushed() {
+
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+
+        trade(account.getId(), 20_000);
+        Account traded = trade(account.getId(), 20_000);
+        Assertions.assertEquals(17.98, traded.getCommissions(), 0.001);
+
+        // the document hasn't been rewritten yet, but reads include the unflushed charges
+        Assertions.assertEquals(0.0, stored(account.getId()).getCommissions());
+        Assertions.assertEquals(2, ledgerEntries(account.getId()).size());
+        Assertions.assertEquals(17.98, get(account.getId()).getCommissions(), 0.001);
+        Number listed =
+                given()
+                        .accept(ContentType.JSON)
+                        .queryParam("owners", account.getOwner())
+                        .when().get("/")
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .extract().path("[0].commissions");
+        Assertions.assertEquals(17.98, listed.doubleValue(), 0.001);
+
+        ledger.flush();
+
+        // now the document has them, the ledger doesn't, and reads don't count them twice
+        Account flushed = stored(account.getId());
+        Assertions.assertEquals(17.98, flushed.getCommissions(), 0.001);
+        Assertions.assertEquals(32.02, flushed.getBalance(), 0.001);
+        Assertions.assertEquals(2, flushed.getLedgerApplied().size());
+        Assertions.assertTrue(ledgerEntries(account.getId()).isEmpty());
+        Assertions.assertEquals(17.98, get(account.getId()).getCommissions(), 0.001);
+
+        // the next flush drops the ids of the deleted entries from ledgerApplied
+        ledger.record(account.getId(), 8.99, -8.99, 0);
+        ledger.flush();
+        flushed = stored(account.getId());
+        Assertions.assertEquals(26.97, flushed.getCommissions(), 0.001);
+        Assertions.assertEquals(1, flushed.getLedgerApplied().size());
+    }
+
+    @Test
+    public void ledger_testConflictRequeuesEntries() throws InterruptedException {
+
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+        double conflicts = registry.counter("account.ledger.conflicts").count();
+
+        // keep rewriting the account, so that flushes lose the race for its _rev now and then
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = Thread.ofPlatform().start(() -> {
+            while (running.get()) {
+                try {
+                    Document document = document(couchDbClient.getDatabaseName(), account.getId());
+                    document.put(AccountDocuments.SENTIMENT, UUID.randomUUID().toString());
+                    put(couchDbClient.getDatabaseName(), document);
+                } catch (RuntimeException re) {
+                    // lost the race to a flush, which is fine
+                }
+            }
+        });
+
+        int trades = 0;
+        try {
+            while (trades < 200 && registry.counter("account.ledger.conflicts").count() == conflicts) {
+                ledger.record(account.getId(), 8.99, -8.99, 0);
+                trades++;
+                ledger.flush();
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        Assertions.assertTrue(registry.counter("account.ledger.conflicts").count() > conflicts, "no flush conflicted with the writer");
+
+        // the entries of the conflicting flush went back in the queue, so the next flush applies them, once
+        ledger.flush();
+        Account flushed = stored(account.getId());
+        Assertions.assertEquals(trades * 8.99, flushed.getCommissions(), 0.001);
+        Assertions.assertEquals(50 - (trades * 8.99), flushed.getBalance(), 0.001);
+        Assertions.assertTrue(ledgerEntries(account.getId()).isEmpty());
+    }
+
+    @Test
+    public void ledger_testRecoveryAppliesEntriesOnce() {
+
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+
+        // a trade recorded just before a crash, which never reached the account
+        Document lost = entry(account.getId(), 8.99);
+        put(ledgerDatabase(), lost);
+
+        // and one that reached the account, but wasn't deleted from the ledger before the crash
+        Document absorbed = entry(account.getId(), 8.99);
+        put(ledgerDatabase(), absorbed);
+        Document document = document(couchDbClient.getDatabaseName(), account.getId());
+        document.put(AccountDocuments.COMMISSIONS, 8.99);
+        document.put(AccountDocuments.BALANCE, 41.01);
+        document.put(AccountDocuments.LEDGER_APPLIED, List.of(absorbed.getId()));
+        put(couchDbClient.getDatabaseName(), document);
+
+        ledger.recover();
+        ledger.recover(); //recovering again doesn't queue anything twice
+        ledger.flush();
+
+        Account flushed = stored(account.getId());
+        Assertions.assertEquals(17.98, flushed.getCommissions(), 0.001);
+        Assertions.assertEquals(32.02, flushed.getBalance(), 0.001);
+        Assertions.assertTrue(ledgerEntries(account.getId()).isEmpty());
+    }
+
+    @Test
+    public void ledger_testEntriesFlushedByPeerNotChargedAgain() {
+
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+
+        // two trades recorded by another replica, which this pod takes over while that replica still has them queued
+        Document first = entry(account.getId(), 8.99);
+        Document second = entry(account.getId(), 8.99);
+        put(ledgerDatabase(), first);
+        put(ledgerDatabase(), second);
+        ledger.recover();
+
+        // the other replica flushes them first and deletes them from the ledger; a later flush of its own has already
+        // dropped the second id from ledgerApplied
+        Document document = document(couchDbClient.getDatabaseName(), account.getId());
+        document.put(AccountDocuments.COMMISSIONS, 17.98);
+        document.put(AccountDocuments.BALANCE, 32.02);
+        document.put(AccountDocuments.LEDGER_APPLIED, List.of(first.getId()));
+        put(couchDbClient.getDatabaseName(), document);
+        for (Document entry : ledgerEntries(account.getId())) delete(ledgerDatabase(), entry);
+
+        // replaying them here charges neither again, and drops the first id now its entry is gone
+        double duplicates = registry.counter("account.ledger.duplicates").count();
+        ledger.flush();
+
+        Account flushed = stored(account.getId());
+        Assertions.assertEquals(17.98, flushed.getCommissions(), 0.001);
+        Assertions.assertEquals(32.02, flushed.getBalance(), 0.001);
+        Assertions.assertTrue(flushed.getLedgerApplied().isEmpty());
+        Assertions.assertEquals(duplicates + 2, registry.counter("account.ledger.duplicates").count());
+        Assertions.assertEquals(17.98, get(account.getId()).getCommissions(), 0.001);
+    }
+
+    private Account trade(String id, double total) {
+        return given()
+                .accept(ContentType.JSON)
+                .queryParam("total", total)
+                .when().put("/" + id)
+                .then()
+                .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                .and()
+                .extract().as(new TypeRef<>() {
+                });
+    }
+
+    private Account get(String id) {
+        return given()
+                .accept(ContentType.JSON)
+                .when().get("/" + id)
+                .then()
+                .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                .and()
+                .extract().as(new TypeRef<>() {
+                });
+    }
+
+    /**
+     * Reads the account document as it is in CouchDB, without the ledger's overlay or the cache
+     */
+    private Account stored(String id) {
+        return AccountDocuments.toAccount(document(couchDbClient.getDatabaseName(), id));
+    }
+
+    private List<Document> ledgerEntries(String accountId) {
+        List<Document> entries = new ArrayList<>();
+        List<DocsResultRow> rows = couchDbClient.getService().postAllDocs(new PostAllDocsOptions.Builder()
+                .db(ledgerDatabase())
+                .includeDocs(true)
+                .build()).execute().getResult().getRows();
+        for (DocsResultRow row : rows) {
+            if (row.getDoc() != null && accountId.equals(row.getDoc().get("accountId"))) entries.add(row.getDoc());
+        }
+        return entries;
+    }
+
+    private Document entry(String accountId, double commission) {
+        return new Document.Builder()
+                .id(UUID.randomUUID().toString())
+                .add("accountId", accountId)
+                .add("commissions", commission)
+                .add("balance", -commission)
+                .add("free", 0)
+                .add("created", System.currentTimeMillis())
+                .build();
+    }
+
+    private String ledgerDatabase() {
+        return couchDbClient.getDatabaseName() + "_ledger";
+    }
+
+    private Document document(String database, String id) {
+        Cloudant service = couchDbClient.getService();
+        return service.getDocument(new GetDocumentOptions.Builder().db(database).docId(id).build()).execute().getResult();
+    }
+
+    private void delete(String database, Document document) {
+        couchDbClient.getService().deleteDocument(new DeleteDocumentOptions.Builder()
+                .db(database)
+                .docId(document.getId())
+                .rev(document.getRev())
+                .build()).execute();
+    }
+
+    private void put(String database, Document document) {
+        couchDbClient.getService().putDocument(new PutDocumentOptions.Builder()
+                .db(database)
+                .docId(document.getId())
+                .document(document)
+                .build()).execute();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Feedback;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyChange;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyDecision;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.ODMLoyaltyRule;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonDocument;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.WatsonTone;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * These test cases check that the json POJOs are equal when their fields are, with matching hashCodes, so they
+ * behave as keys in sets and maps.  They don't start Quarkus or interact with CouchDB.
+ */
+public class JsonEqualityTest {
+
+    @Test
+    public void testAccountEqualByFields() {
+        Account account = account();
+        Account same = account();
+
+        assertEqual(account, same);
+        Assertions.assertNotSame(account, same);
+
+        Account copy = new Account(account);
+        assertEqual(account, copy);
+
+        same.setBalance(49.0);
+        Assertions.assertNotEquals(account, same);
+        same = account();
+        same.setOperation("PUT");
+        Assertions.assertNotEquals(account, same);
+        same = account();
+        same.setId("2-b");
+        Assertions.assertNotEquals(account, same);
+        Assertions.assertNotEquals(account, null);
+        Assertions.assertNotEquals(account, "1-a");
+    }
+
+    @Test
+    public void testAccountIgnoresCouchDbBookkeeping() {
+        Account account = account();
+        Account written = account();
+
+        // the revision, outbox, ledger ids and last persisted loyalty describe the document, not the account
+        written.setRev("3-abc");
+        written.setOutbox(List.of("{\"owner\": \"John Doe\"}"));
+        written.setLedgerApplied(List.of("entry-1"));
+        written.setPersistedLoyalty("Silver");
+
+        assertEqual(account, written);
+    }
+
+    @Test
+    public void testAccountsAsSetKeys() {
+        Set<Account> accounts = new HashSet<>();
+        accounts.add(account());
+        accounts.add(account());
+        Assertions.assertEquals(1, accounts.size());
+
+        Account other = account();
+        other.setCommissions(9.99);
+        accounts.add(other);
+        Assertions.assertEquals(2, accounts.size());
+        Assertions.assertTrue(accounts.contains(account()));
+    }
+
+    @Test
+    public void testLoyaltyChangeEqualByFields() {
+        LoyaltyChange change = new LoyaltyChange("John Doe", "Basic", "Bronze");
+        LoyaltyChange same = new LoyaltyChange("John Doe", "Basic", "Bronze");
+        assertEqual(change, same);
+
+        change.setEventId("event-1");
+        Assertions.assertNotEquals(change, same);
+        same.setEventId("event-1");
+        assertEqual(change, same);
+
+        same.setNew("Silver");
+        Assertions.assertNotEquals(change, same);
+    }
+
+    @Test
+    public void testLoyaltyDecisionAndRuleEqualByFields() {
+        LoyaltyDecision decision = new LoyaltyDecision(12345.0);
+        LoyaltyDecision same = new LoyaltyDecision(12345.0);
+        decision.setLoyalty("Silver");
+        same.setLoyalty("Silver");
+        assertEqual(decision, same);
+
+        same.setTradeTotal(12345.5);
+        Assertions.assertNotEquals(decision, same);
+
+        // the rule compares the decision it wraps
+        assertEqual(new ODMLoyaltyRule(50000.0), new ODMLoyaltyRule(50000.0));
+        Assertions.assertNotEquals(new ODMLoyaltyRule(50000.0), new ODMLoyaltyRule(60000.0));
+    }
+
+    @Test
+    public void testWatsonDocumentComparesToneContents() {
+        WatsonDocument document = new WatsonDocument(new WatsonTone[] {new WatsonTone(0.9, "joy", "Joy")});
+        WatsonDocument same = new WatsonDocument(new WatsonTone[] {new WatsonTone(0.9, "joy", "Joy")});
+
+        // different arrays holding equal tones
+        assertEqual(document, same);
+
+        WatsonDocument other = new WatsonDocument(new WatsonTone[] {new WatsonTone(0.9, "anger", "Anger")});
+        Assertions.assertNotEquals(document, other);
+        Assertions.assertNotEquals(document, new WatsonDocument(new WatsonTone[0]));
+    }
+
+    @Test
+    public void testFeedbackEqualByFields() {
+        assertEqual(new Feedback("Thanks", 1, "Joy"), new Feedback("Thanks", 1, "Joy"));
+        Assertions.assertNotEquals(new Feedback("Thanks", 1, "Joy"), new Feedback("Thanks", 0, "Joy"));
+    }
+
+    private static void assertEqual(Object expected, Object actual) {
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals(actual, expected);
+        Assertions.assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    private static Account account() {
+        return new Account("1-a", "John Doe", "Basic", 50.0, 0.0, 0, "Unknown", 9.99);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.loyalty.LocalLoyaltyTestProfile;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.quarkus.test.security.oidc.Claim;
+import io.quarkus.test.security.oidc.ConfigMetadata;
+import io.quarkus.test.security.oidc.OidcSecurity;
+import io.quarkus.test.security.oidc.UserInfo;
+import io.restassured.common.mapper.TypeRef;
+import io.restassured.http.ContentType;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * These test cases interact with CouchDB and evaluate the loyalty rule in-process (loyalty.mode=local) rather than calling ODM
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestHTTPEndpoint(AccountService.class)
+@TestProfile(LocalLoyaltyTestProfile.class)
+public class LocalLoyaltyServiceTest extends AbstractIntegrationTest {
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void local_testBronzeUpdateAccountEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        Account couchDbAccount = accountRepository.save(account);
+
+        double total = 20_000;
+
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .queryParam("total", total)
+                        .when().put("/" + account.getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        // Verify the local rules agree with the ODM decision table
+        Assertions.assertEquals(account.getId(), persistedAccount.getId());
+        Assertions.assertEquals("Bronze", persistedAccount.getLoyalty());
+        Assertions.assertEquals(8.99, persistedAccount.getNextCommission());
+        Assertions.assertEquals(8.99, persistedAccount.getCommissions());
+        Assertions.assertEquals(41.01, persistedAccount.getBalance());
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void local_testGoldUpdateAccountEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        Account couchDbAccount = accountRepository.save(account);
+
+        double total = 110_000;
+
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .queryParam("total", total)
+                        .when().put("/" + account.getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        // Verify the local rules agree with the ODM decision table
+        Assertions.assertEquals(account.getId(), persistedAccount.getId());
+        Assertions.assertEquals("Gold", persistedAccount.getLoyalty());
+        Assertions.assertEquals(6.99, persistedAccount.getNextCommission());
+        Assertions.assertEquals(6.99, persistedAccount.getCommissions());
+        Assertions.assertEquals(43.01, persistedAccount.getBalance());
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void local_testConcurrentUpdatesOnOneAccount() throws Exception {
+
+        Account account = new Account(faker.name().fullName());
+
+        Account couchDbAccount = accountRepository.save(account);
+
+        double total = 20_000;
+        int trades = 16;
+
+        // every trade is charged exactly once, whether it was applied alone or coalesced with others
+        ExecutorService clients = Executors.newFixedThreadPool(trades);
+        try {
+            List<Future<Integer>> statuses = new ArrayList<>(trades);
+            for (int trade = 0; trade < trades; trade++) {
+                statuses.add(clients.submit(() ->
+                        given()
+                                .accept(ContentType.JSON)
+                                .queryParam("total", total)
+                                .when().put("/" + account.getId())
+                                .then()
+                                .extract().statusCode()));
+            }
+            for (Future<Integer> status : statuses) Assertions.assertEquals(HttpStatus.SC_OK, status.get());
+        } finally {
+            clients.shutdownNow();
+        }
+
+        Account persistedAccount = accountRepository.findById(account.getId()).orElseThrow();
+        Assertions.assertEquals("Bronze", persistedAccount.getLoyalty());
+        Assertions.assertEquals(trades * 8.99, persistedAccount.getCommissions(), 0.001);
+        Assertions.assertEquals(50 - (trades * 8.99), persistedAccount.getBalance(), 0.001);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.loyalty.LoyaltyDecisionCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * These test cases exercise the LoyaltyDecisionCache directly, recording decisions as if they came from ODM.
+ * They do not interact with CouchDB or ODM.
+ */
+@QuarkusTest
+public class LoyaltyDecisionCacheTest {
+
+    @Inject
+    LoyaltyDecisionCache loyaltyDecisionCache;
+
+    @Inject
+    MeterRegistry registry;
+
+    @BeforeEach
+    void forgetDecisions() {
+        loyaltyDecisionCache.refresh();
+    }
+
+    @Test
+    public void testNothingLearned() {
+        Assertions.assertNull(loyaltyDecisionCache.lookup(10000.0));
+    }
+
+    @Test
+    public void testTotalsBetweenSameLevelAreHits() {
+        loyaltyDecisionCache.record(10000.0, "Basic");
+        Assertions.assertEquals("Basic", loyaltyDecisionCache.lookup(10000.0)); // an exact match
+        Assertions.assertNull(loyaltyDecisionCache.lookup(20000.0)); // one sample isn't a range
+
+        loyaltyDecisionCache.record(40000.0, "Basic");
+        Assertions.assertEquals("Basic", loyaltyDecisionCache.lookup(20000.0));
+        Assertions.assertNull(loyaltyDecisionCache.lookup(50000.0)); // beyond what has been seen
+
+        // Between two different levels, the boundary could be anywhere, so ODM must be asked
+        loyaltyDecisionCache.record(60000.0, "Bronze");
+        Assertions.assertNull(loyaltyDecisionCache.lookup(50000.0));
+        Assertions.assertEquals("Basic", loyaltyDecisionCache.lookup(30000.0));
+    }
+
+    @Test
+    public void testOnlyTierEdgesKept() {
+        loyaltyDecisionCache.record(10000.0, "Basic");
+        loyaltyDecisionCache.record(40000.0, "Basic");
+        loyaltyDecisionCache.record(20000.0, "Basic"); // inside the tier, so not kept
+        loyaltyDecisionCache.record(45000.0, "Basic"); // the new upper edge, replacing 40000
+        loyaltyDecisionCache.record(5000.0, "Basic");  // the new lower edge, replacing 10000
+
+        Assertions.assertEquals(2.0, cacheSize());
+        Assertions.assertEquals("Basic", loyaltyDecisionCache.lookup(42000.0));
+        Assertions.assertEquals("Basic", loyaltyDecisionCache.lookup(7000.0));
+    }
+
+    @Test
+    public void testRuleChangeRelearns() {
+        loyaltyDecisionCache.record(10000.0, "Basic");
+        loyaltyDecisionCache.record(40000.0, "Basic");
+
+        // ODM now says something different for a total we've seen, so everything learned is suspect
+        loyaltyDecisionCache.record(40000.0, "Bronze");
+        Assertions.assertEquals(1.0, cacheSize());
+        Assertions.assertNull(loyaltyDecisionCache.lookup(20000.0));
+        Assertions.assertEquals("Bronze", loyaltyDecisionCache.lookup(40000.0));
+    }
+
+    @Test
+    public void testUnknownNotLearned() {
+        loyaltyDecisionCache.record(10000.0, "Unknown");
+        loyaltyDecisionCache.record(40000.0, "Unknown");
+        Assertions.assertNull(loyaltyDecisionCache.lookup(20000.0));
+    }
+
+    private double cacheSize() {
+        return registry.get("cache.size").tag("cache", "loyalty").gauge().value();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.cloud.cloudant.v1.Cloudant;
+import com.ibm.cloud.cloudant.v1.model.Document;
+import com.ibm.cloud.cloudant.v1.model.GetDocumentOptions;
+import com.ibm.cloud.cloudant.v1.model.PutDocumentOptions;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.AccountDocuments;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.db.CouchDbClient;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyChange;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.outbox.OutboxRelayTestProfile;
+import com.kyndryl.cjot.sample.stocktrader.account.test.outbox.RecordingLoyaltyChangePublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * These test cases put loyalty change events straight into account outboxes in CouchDB and check that the
+ * LoyaltyOutboxRelay sends and removes them.  The publisher is replaced by a RecordingLoyaltyChangePublisher,
+ * so they do not put messages on a messaging provider.
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestProfile(OutboxRelayTestProfile.class)
+public class LoyaltyOutboxRelayTest extends AbstractIntegrationTest {
+
+    @Inject
+    RecordingLoyaltyChangePublisher publisher;
+
+    @Inject
+    CouchDbClient couchDbClient;
+
+    @Inject
+    MeterRegistry registry;
+
+    @BeforeEach
+    void resetPublisher() {
+        publisher.reset();
+    }
+
+    @Test
+    public void testRelaysAndEmptiesOutbox() throws InterruptedException {
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+        String event = new LoyaltyChange(account.getOwner(), "Basic", "Bronze").toString();
+        double relayed = relayed("sent");
+
+        addEvent(account.getId(), event);
+
+        await(() -> outbox(account.getId()).isEmpty());
+        Assertions.assertEquals(1, Collections.frequency(publisher.getSent(), event));
+        Assertions.assertTrue(relayed("sent") >= relayed + 1);
+    }
+
+    @Test
+    public void testFailedSendKeepsEvents() throws InterruptedException {
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+        String event = new LoyaltyChange(account.getOwner(), "Basic", "Bronze").toString();
+        double failed = relayed("failed");
+
+        publisher.setFailing(true);
+        addEvent(account.getId(), event);
+
+        // the broker refused the batch, so the event stays in the outbox for the next pass
+        await(() -> relayed("failed") > failed);
+        Assertions.assertEquals(List.of(event), outbox(account.getId()));
+        Assertions.assertFalse(publisher.getSent().contains(event));
+
+        publisher.setFailing(false);
+        await(() -> outbox(account.getId()).isEmpty());
+        Assertions.assertEquals(1, Collections.frequency(publisher.getSent(), event));
+    }
+
+    @Test
+    public void testConflictRemovesOnlySentEvents() throws InterruptedException {
+        Account account = accountRepository.save(new Account(faker.name().fullName()));
+        String first = new LoyaltyChange(account.getOwner(), "Basic", "Bronze").toString();
+        String second = new LoyaltyChange(account.getOwner(), "Bronze", "Silver").toString();
+        double conflicts = registry.counter("loyalty.outbox.conflicts").count();
+
+        // a trade adds another event while the first is being sent, so emptying the outbox conflicts
+        AtomicBoolean changed = new AtomicBoolean(false);
+        publisher.setBeforeSend(() -> {
+            if (changed.compareAndSet(false, true)) addEvent(account.getId(), second);
+        });
+        addEvent(account.getId(), first);
+
+        await(() -> outbox(account.getId()).isEmpty() && publisher.getSent().contains(second));
+        Assertions.assertTrue(changed.get());
+        List<String> sent = publisher.getSent();
+        Assertions.assertEquals(1, Collections.frequency(sent, first), "the first event was sent again");
+        Assertions.assertEquals(1, Collections.frequency(sent, second), "the second event was not sent exactly once");
+        Assertions.assertTrue(sent.indexOf(first) < sent.indexOf(second));
+        Assertions.assertEquals(conflicts, registry.counter("loyalty.outbox.conflicts").count());
+    }
+
+    private double relayed(String outcome) {
+        return registry.counter("loyalty.outbox.relayed", "outcome", outcome).count();
+    }
+
+    private Document document(String id) {
+        Cloudant service = couchDbClient.getService();
+        return service.getDocument(new GetDocumentOptions.Builder().db(couchDbClient.getDatabaseName()).docId(id).build())
+                .execute().getResult();
+    }
+
+    private List<String> outbox(String id) {
+        return AccountDocuments.stringList(document(id).get(AccountDocuments.OUTBOX));
+    }
+
+    private void addEvent(String id, String event) {
+        Cloudant service = couchDbClient.getService();
+        for (int attempt = 0; ; attempt++) {
+            Document document = document(id);
+            List<String> outbox = new ArrayList<>(AccountDocuments.stringList(document.get(AccountDocuments.OUTBOX)));
+            outbox.add(event);
+            document.put(AccountDocuments.OUTBOX, outbox);
+            try {
+                service.putDocument(new PutDocumentOptions.Builder().db(couchDbClient.getDatabaseName()).docId(id).document(document).build()).execute();
+                return;
+            } catch (RuntimeException re) {
+                if (!CouchDbClient.isConflict(re) || attempt >= 5) throw re;
+            }
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "timed out waiting for the loyalty outbox relay");
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.loyalty.FakeOdmResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.loyalty.FakeOdmTestProfile;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.quarkus.test.security.oidc.Claim;
+import io.quarkus.test.security.oidc.ConfigMetadata;
+import io.quarkus.test.security.oidc.OidcSecurity;
+import io.quarkus.test.security.oidc.UserInfo;
+import io.restassured.common.mapper.TypeRef;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * These test cases interact with CouchDB and ask a FakeOdmResource for the loyalty level while the account is being
+ * read (account.loyalty.parallel=true)
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestHTTPEndpoint(AccountService.class)
+@TestProfile(FakeOdmTestProfile.class)
+public class ParallelLoyaltyServiceTest extends AbstractIntegrationTest {
+
+    @Inject
+    FakeOdmResource odm;
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void parallel_testGoldUpdateAccountEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        Account couchDbAccount = accountRepository.save(account);
+
+        // slower than the CouchDB read, so the read really does finish first and wait for the answer
+        odm.answer("Gold", Duration.ofMillis(500));
+
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .queryParam("total", 110_000)
+                        .when().put("/" + account.getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        Assertions.assertEquals(1, odm.getCalls());
+        Assertions.assertEquals(account.getId(), persistedAccount.getId());
+        Assertions.assertEquals("Gold", persistedAccount.getLoyalty());
+        Assertions.assertEquals(6.99, persistedAccount.getNextCommission());
+        Assertions.assertEquals(6.99, persistedAccount.getCommissions());
+        Assertions.assertEquals(43.01, persistedAccount.getBalance());
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void parallel_testMissingAccountDoesNotWaitForOdm() {
+
+        odm.answer("Gold", Duration.ofSeconds(30));
+
+        // the account isn't there, so the ODM call is abandoned rather than waited for
+        long start = System.nanoTime();
+        given()
+                .accept(ContentType.JSON)
+                .queryParam("total", 110_000)
+                .when().put("/" + UUID.randomUUID())
+                .then()
+                .statusCode(HttpStatus.SC_NO_CONTENT); // Check we got a 204 - No content
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        Assertions.assertTrue(elapsed.compareTo(Duration.ofSeconds(10)) < 0, "waited " + elapsed + " for an account that doesn't exist");
+    }
+}
@@ -0,0 +1,143 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.ReactiveAccountService;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.Account;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.loyalty.LocalLoyaltyTestProfile;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import io.quarkus.test.security.oidc.Claim;
+import io.quarkus.test.security.oidc.ConfigMetadata;
+import io.quarkus.test.security.oidc.OidcSecurity;
+import io.quarkus.test.security.oidc.UserInfo;
+import io.restassured.common.mapper.TypeRef;
+import io.restassured.http.ContentType;
+import org.apache.http.HttpStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+
+/**
+ * These test cases exercise the non-blocking endpoints against CouchDB, evaluating the loyalty rule in-process
+ * (loyalty.mode=local) rather than calling ODM
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestHTTPEndpoint(ReactiveAccountService.class)
+@TestProfile(LocalLoyaltyTestProfile.class)
+public class ReactiveAccountServiceTest extends AbstractIntegrationTest {
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void reactive_testGetOneAccountEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        accountRepository.save(account);
+
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .when().get("/" + account.getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        // Verify everything that we created was returned.
+        Assertions.assertEquals(account, persistedAccount);
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void reactive_testSilverUpdateAccountEndpoint() {
+
+        Account account = new Account(faker.name().fullName());
+
+        accountRepository.save(account);
+
+        double total = 60_000;
+
+        Account persistedAccount =
+                given()
+                        .accept(ContentType.JSON)
+                        .queryParam("total", total)
+                        .when().put("/" + account.getId())
+                        .then()
+                        .statusCode(HttpStatus.SC_OK) // Check we got a 200
+                        .and()
+                        .extract().as(new TypeRef<>() {
+                        }); // return the values back
+
+        Assertions.assertEquals(account.getId(), persistedAccount.getId());
+        Assertions.assertEquals("Silver", persistedAccount.getLoyalty());
+        Assertions.assertEquals(7.99, persistedAccount.getNextCommission());
+        Assertions.assertEquals(7.99, persistedAccount.getCommissions());
+        Assertions.assertEquals(42.01, persistedAccount.getBalance());
+
+        // The document written over the Vert.x client is still readable through JNoSQL
+        Account savedAccount = accountRepository.findById(account.getId()).orElseThrow();
+        Assertions.assertEquals(persistedAccount, savedAccount);
+    }
+
+    @Test
+    // Set up the JWT/Security items
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    @OidcSecurity(claims = {
+            @Claim(key = "email", value = "user@gmail.com")
+    }, userinfo = {
+            @UserInfo(key = "sub", value = "subject")
+    }, config = {
+            @ConfigMetadata(key = "issuer", value = "http://stock-trader.ibm.com"),
+            @ConfigMetadata(key = "audience", value = "stock-trader")
+    })
+    public void reactive_testUpdateMissingAccountEndpoint() {
+
+        given()
+                .accept(ContentType.JSON)
+                .queryParam("total", 1000)
+                .when().put("/" + UUID.randomUUID())
+                .then()
+                .statusCode(HttpStatus.SC_NO_CONTENT); // Same as the blocking endpoint: no account, no content
+    }
+}
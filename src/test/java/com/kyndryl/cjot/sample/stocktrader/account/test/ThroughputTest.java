@@ -0,0 +1,46 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.AccountService;
+import com.kyndryl.cjot.sample.stocktrader.account.test.couchdb.CouchDBTestResource;
+import com.kyndryl.cjot.sample.stocktrader.account.test.threads.ThreadsTestProfile;
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPEndpoint;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.security.TestSecurity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Trade throughput in the account.threads mode picked by the benchmark.threads system property.  The benchmark
+ * Maven profile runs it once per mode, so the two [benchmark] lines can be compared.
+ */
+@QuarkusTest
+@WithTestResource(value = CouchDBTestResource.class, parallel = true)
+@TestHTTPEndpoint(AccountService.class)
+@TestProfile(ThreadsTestProfile.class)
+@Tag("benchmark")
+public class ThroughputTest extends AbstractThroughputBenchmark {
+
+    @Test
+    @TestSecurity(user = "stock", roles = "StockTrader")
+    public void tradeThroughput() throws InterruptedException {
+        Assertions.assertTrue(measureThroughput(System.getProperty("benchmark.threads", "worker")) > 0);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.changes;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+public class ChangesFeedTestProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        // Follow the _changes feed, with a cache TTL long enough that only the feed can explain a cached account
+        // changing, and the loyalty rule evaluated in-process so reads don't depend on reaching ODM
+        return Map.of("account.changes.enabled", "true",
+                "account.changes.poll-timeout", "PT2S",
+                "account.cache.ttl", "PT10M",
+                "loyalty.mode", "local");
+    }
+
+    @Override
+    public boolean disableGlobalTestResources() {
+        return false;
+    }
+
+}
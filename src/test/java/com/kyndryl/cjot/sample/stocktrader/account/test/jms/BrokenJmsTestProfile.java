@@ -25,12 +25,13 @@ public class BrokenJmsTestProfile implements QuarkusTestProfile {
 
     @Override
     public Map<String, String> getConfigOverrides() {
-        Map<String, String> configOverrides = new HashMap<>(5);
+        Map<String, String> configOverrides = new HashMap<>(6);
         configOverrides.put("messaging.enabled", "true");
         configOverrides.put("quarkus.qpid-jms.url", "amqp://badhostname:13215");
         configOverrides.put("quarkus.qpid-jms.username", "fake");
         configOverrides.put("quarkus.qpid-jms.password", "fake");
         configOverrides.put("quarkus.qpid-jms.wrap", "true");
+        configOverrides.put("messaging.publisher.max-attempts", "3");
 
         return configOverrides;
     }
@@ -0,0 +1,35 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.ledger;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+public class LedgerTestProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        // The tests flush and recover the ledger themselves, taking over entries from other instances straight away,
+        // and evaluate loyalty in-process so every trade is charged 8.99 at Bronze
+        return Map.of("account.ledger.enabled", "true",
+                "account.ledger.flush-interval", "off",
+                "account.ledger.recovery-interval", "off",
+                "account.ledger.recovery-grace", "PT0S",
+                "loyalty.mode", "local");
+    }
+
+}
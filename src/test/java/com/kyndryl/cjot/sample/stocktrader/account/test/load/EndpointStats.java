@@ -0,0 +1,88 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency histogram and error count for one endpoint during a load run.  Latencies are recorded in microseconds, to
+ * three significant digits, up to a minute.
+ */
+public class EndpointStats {
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    private final String name;
+    private final Histogram histogram = new ConcurrentHistogram(HIGHEST_LATENCY, 3);
+    private final AtomicInteger errors = new AtomicInteger();
+
+    public EndpointStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos, boolean ok) {
+        histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_LATENCY));
+        if (!ok) errors.incrementAndGet();
+    }
+
+    public long getCount() {
+        return histogram.getTotalCount();
+    }
+
+    public int getErrors() {
+        return errors.get();
+    }
+
+    public double getThroughput(double seconds) {
+        return getCount() / seconds;
+    }
+
+    /**
+     * Latency in milliseconds at the given percentile (50, 99, 99.9 and so on)
+     */
+    public double getPercentile(double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Adds this endpoint's numbers to a report or baseline, as name.throughput, name.p50, name.p99 and name.p999
+     */
+    public void store(Properties properties, double seconds) {
+        properties.setProperty(name + ".throughput", format(getThroughput(seconds)));
+        properties.setProperty(name + ".p50", format(getPercentile(50.0)));
+        properties.setProperty(name + ".p99", format(getPercentile(99.0)));
+        properties.setProperty(name + ".p999", format(getPercentile(99.9)));
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: requests=%d errors=%d p50=%.2f ms p99=%.2f ms p999=%.2f ms max=%.2f ms",
+                name, getCount(), getErrors(), getPercentile(50.0), getPercentile(99.0), getPercentile(99.9),
+                histogram.getMaxValue() / 1000.0);
+    }
+}
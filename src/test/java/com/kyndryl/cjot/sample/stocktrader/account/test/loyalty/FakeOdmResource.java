@@ -0,0 +1,65 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.loyalty;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.LoyaltyDecision;
+import com.ibm.hybrid.cloud.sample.stocktrader.account.json.ODMLoyaltyRule;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for the ODM loyalty rule when FakeOdmTestProfile points odm.url at it, answering every request with the
+ * same loyalty level after a configurable delay
+ */
+@Path("/fake-odm")
+@ApplicationScoped
+public class FakeOdmResource {
+    private volatile String loyalty = "Basic";
+    private volatile Duration delay = Duration.ZERO;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Uni<ODMLoyaltyRule> getLoyaltyLevel(ODMLoyaltyRule input) {
+        calls.incrementAndGet();
+        LoyaltyDecision decision = new LoyaltyDecision(input.getTheLoyaltyDecision().getTradeTotal());
+        decision.setLoyalty(loyalty);
+        ODMLoyaltyRule output = new ODMLoyaltyRule();
+        output.setTheLoyaltyDecision(decision);
+
+        Uni<ODMLoyaltyRule> answer = Uni.createFrom().item(output);
+        return delay.isZero() ? answer : answer.onItem().delayIt().by(delay);
+    }
+
+    public void answer(String loyalty, Duration delay) {
+        this.loyalty = loyalty;
+        this.delay = delay;
+        calls.set(0);
+    }
+
+    public int getCalls() {
+        return calls.get();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.loyalty;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+public class FakeOdmTestProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        // Ask the FakeOdmResource for loyalty levels, in parallel with the CouchDB read, and every time
+        return Map.of("loyalty.mode", "remote",
+                "account.loyalty.parallel", "true",
+                "loyalty.cache.enabled", "false",
+                "odm.url", "http://localhost:${quarkus.http.test-port:8081}/fake-odm");
+    }
+
+}
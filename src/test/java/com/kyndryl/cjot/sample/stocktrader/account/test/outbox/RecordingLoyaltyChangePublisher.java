@@ -0,0 +1,64 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.outbox;
+
+import com.ibm.hybrid.cloud.sample.stocktrader.account.messaging.LoyaltyChangePublisher;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Alternative;
+import jakarta.jms.JMSException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stands in for the LoyaltyChangePublisher when the OutboxRelayTestProfile is active, so the LoyaltyOutboxRelay can
+ * be tested without a broker.  It records what it is asked to send, can be told to fail, and can run a hook before
+ * each send (to change an account while the relay is between reading and emptying its outbox).
+ */
+@Alternative
+@ApplicationScoped
+public class RecordingLoyaltyChangePublisher extends LoyaltyChangePublisher {
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private volatile boolean failing = false;
+    private volatile Runnable beforeSend = null;
+
+    @Override
+    public synchronized void sendBatch(List<String> messages) throws JMSException {
+        Runnable hook = beforeSend;
+        if (hook != null) hook.run();
+        if (failing) throw new JMSException("Broker unavailable (simulated)");
+        sent.addAll(messages);
+    }
+
+    public List<String> getSent() {
+        return new ArrayList<>(sent);
+    }
+
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    public void setBeforeSend(Runnable beforeSend) {
+        this.beforeSend = beforeSend;
+    }
+
+    public void reset() {
+        sent.clear();
+        failing = false;
+        beforeSend = null;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+       Copyright 2024 Kyndryl Corp, All Rights Reserved
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package com.kyndryl.cjot.sample.stocktrader.account.test.threads;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+/**
+ * Runs the blocking account operations in the mode given by the benchmark.threads system property (worker, the
+ * default, or virtual), with the loyalty rule evaluated in-process so results don't depend on reaching ODM
+ */
+public class ThreadsTestProfile implements QuarkusTestProfile {
+
+    protected String threads() {
+        return System.getProperty("benchmark.threads", "worker");
+    }
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("account.threads", threads(), "loyalty.mode", "local");
+    }
+
+    @Override
+    public boolean disableGlobalTestResources() {
+        return false;
+    }
+
+}